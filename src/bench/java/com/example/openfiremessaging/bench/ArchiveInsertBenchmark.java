@@ -0,0 +1,95 @@
+package com.example.openfiremessaging.bench;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.service.ArchiveWriter;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares archive insert throughput of one repository save (one round trip and one
+ * commit) per message against the coalescing {@link ArchiveWriter}, with many concurrent
+ * senders, on an embedded H2 database.
+ *
+ * Arguments: [rows per run, default 20000] [sender threads, default 16]
+ */
+public final class ArchiveInsertBenchmark {
+
+    private interface Insert {
+        void insert(AppArchivedMessage row) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        try (ConfigurableApplicationContext context = EmbeddedBenchContext.start("archive-bench",
+                Map.of("messaging.conversation-key-backfill.enabled", "false"))) {
+            AppArchivedMessageRepository repository = context.getBean(AppArchivedMessageRepository.class);
+            ArchiveWriter archiveWriter = context.getBean(ArchiveWriter.class);
+
+            Insert perRowSave = repository::save;
+            Insert batched = archiveWriter::write;
+
+            // Warm up both paths before measuring.
+            run(perRowSave, rows / 4, threads);
+            run(batched, rows / 4, threads);
+
+            double before = run(perRowSave, rows, threads);
+            double after = run(batched, rows, threads);
+
+            System.out.printf("rows=%d threads=%d%n", rows, threads);
+            System.out.printf("per-row save : %,12.0f inserts/sec%n", before);
+            System.out.printf("ArchiveWriter: %,12.0f inserts/sec (%.1fx)%n", after, after / before);
+        }
+    }
+
+    private static double run(Insert insert, int rows, int threads) throws Exception {
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        AtomicInteger remaining = new AtomicInteger(rows);
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int sender = t;
+            senders.execute(() -> {
+                try {
+                    while (remaining.getAndDecrement() > 0) {
+                        insert.insert(row(sender));
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " sender(s) failed");
+        }
+        return rows / (elapsed / 1e9);
+    }
+
+    private static AppArchivedMessage row(int sender) {
+        AppArchivedMessage row = new AppArchivedMessage();
+        row.setFromJid("user" + sender + "@bench.local");
+        row.setToJid("peer" + (sender % 4) + "@bench.local");
+        row.setSentDate(Instant.now());
+        row.setMessageType(1);
+        row.setBody("benchmark message from sender " + sender);
+        return row;
+    }
+}
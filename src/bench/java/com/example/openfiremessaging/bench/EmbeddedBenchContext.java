@@ -0,0 +1,65 @@
+package com.example.openfiremessaging.bench;
+
+import com.example.openfiremessaging.OpenfireMessagingApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Boots the application against an in-memory H2 database and throwaway attachment
+ * directories, so benchmarks need neither MySQL nor a real attachment store.
+ */
+public final class EmbeddedBenchContext {
+
+    private EmbeddedBenchContext() {
+    }
+
+    public static ConfigurableApplicationContext start(String name, Map<String, Object> overrides) throws IOException {
+        return start(name, overrides, new ApplicationContextInitializer<?>[0]);
+    }
+
+    /**
+     * As {@link #start(String, Map)}, with initializers that can e.g. register extra
+     * beans for the benchmark before the context is refreshed.
+     */
+    public static ConfigurableApplicationContext start(String name, Map<String, Object> overrides,
+                                                       ApplicationContextInitializer<?>... initializers) throws IOException {
+        Path attachments = Files.createTempDirectory(name + "-attachments");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.main.web-application-type", "none");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.org.springframework.security", "WARN");
+        properties.put("OPENFIRE_ADMIN_PASSWORD", "bench");
+        // Nothing listens here unless a benchmark starts a stub server and overrides it.
+        properties.put("openfire.port", "1");
+        properties.put("openfire.pool.size", "1");
+        // Benchmarks drive far more requests per user than the production rate limits allow.
+        properties.put("messaging.admission.enabled", "false");
+        properties.put("file.attachment-dir1", attachments.resolve("files").toString());
+        properties.put("file.attachment-dir2", attachments.resolve("media").toString());
+        properties.put("messaging.search.index-dir", attachments.resolve("search-index").toString());
+        properties.put("messaging.cold-tier.dir", attachments.resolve("cold-archive").toString());
+        properties.putAll(overrides);
+
+        // Passed as command line arguments so they take precedence over application.properties.
+        String[] args = properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(OpenfireMessagingApplication.class)
+                .initializers(initializers)
+                .run(args);
+    }
+}
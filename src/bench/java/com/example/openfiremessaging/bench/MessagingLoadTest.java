@@ -0,0 +1,343 @@
+package com.example.openfiremessaging.bench;
+
+import com.example.openfiremessaging.security.JwtUtils;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of {@code /api/messages/send} and {@code /api/messages/history}.
+ * Boots the application on a random port against a {@link StubXmppServer} and an
+ * embedded H2 database, then runs JWT-authenticated virtual users that send a weighted
+ * mix of text, media and file messages to each other and page through history.
+ *
+ * Reports, per operation, throughput and p50/p99/p999 latency, plus the allocation rate
+ * of the server-side threads (Tomcat workers, archive writer, send pipeline, Smack) and
+ * of the whole process, which includes the load generator.
+ *
+ * Options are given as key=value arguments:
+ * <pre>
+ * users=100            virtual users, each with its own token
+ * seconds=30           measured duration, after a warm-up of a third of that
+ * mix=text:80,media:10,file:10   weights of the send types
+ * history=20           percent of operations that read a history page instead of sending
+ * attachment-bytes=32768         size of each media/file attachment
+ * rate=0               requests per second per user; 0 runs closed loop (no think time)
+ * async=false          send through the asynchronous pipeline instead of synchronously
+ * virtual-threads=false
+ * xmpp-nodes=1         stub XMPP servers, sends are routed across them by recipient</pre>
+ */
+public final class MessagingLoadTest {
+
+    private static final String DOMAIN = "bench.local";
+    private static final String[] SERVER_THREADS = {"http-nio", "archive-writer", "send-pipeline", "Smack", "message-stream"};
+
+    private enum Operation {
+        SEND_TEXT, SEND_MEDIA, SEND_FILE, HISTORY
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(Map.of(
+                "users", "100", "seconds", "30", "mix", "text:80,media:10,file:10", "history", "20",
+                "attachment-bytes", "32768", "rate", "0", "async", "false", "virtual-threads", "false",
+                "xmpp-nodes", "1"));
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !options.containsKey(pair[0])) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(pair[0], pair[1]);
+        }
+        int users = Integer.parseInt(options.get("users"));
+        int seconds = Integer.parseInt(options.get("seconds"));
+
+        List<StubXmppServer> xmppNodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < Integer.parseInt(options.get("xmpp-nodes")); i++) {
+                xmppNodes.add(new StubXmppServer(DOMAIN));
+            }
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("spring.main.web-application-type", "servlet");
+            properties.put("server.address", "127.0.0.1");
+            properties.put("server.port", "0");
+            properties.put("spring.threads.virtual.enabled", options.get("virtual-threads"));
+            properties.put("openfire.host", "127.0.0.1");
+            properties.put("openfire.port", String.valueOf(xmppNodes.get(0).getPort()));
+            properties.put("openfire.nodes", String.join(",", xmppNodes.stream()
+                    .map(node -> "127.0.0.1:" + node.getPort()).toList()));
+            properties.put("openfire.domain", DOMAIN);
+            properties.put("messaging.conversation-key-backfill.enabled", "false");
+
+            try (ConfigurableApplicationContext context = EmbeddedBenchContext.start("load-test", properties)) {
+                String baseUri = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+                JwtUtils jwtUtils = context.getBean(JwtUtils.class);
+                Workload workload = new Workload(baseUri, jwtUtils, users, options);
+
+                System.out.printf("Warming up for %ds...%n", Math.max(1, seconds / 3));
+                workload.run(Math.max(1, seconds / 3));
+
+                Allocation before = Allocation.sample();
+                long[] stanzasBefore = xmppNodes.stream().mapToLong(StubXmppServer::getMessageCount).toArray();
+                Map<Operation, long[]> latencies = workload.run(seconds);
+                Allocation after = Allocation.sample();
+
+                long[] stanzas = new long[xmppNodes.size()];
+                for (int i = 0; i < stanzas.length; i++) {
+                    stanzas[i] = xmppNodes.get(i).getMessageCount() - stanzasBefore[i];
+                }
+                report(options, workload, latencies, seconds, before, after, stanzas);
+            }
+        } finally {
+            for (StubXmppServer node : xmppNodes) {
+                node.close();
+            }
+        }
+    }
+
+    private static void report(Map<String, String> options, Workload workload, Map<Operation, long[]> latencies,
+                               int seconds, Allocation before, Allocation after, long[] stanzas) {
+        System.out.println();
+        System.out.println("options: " + new TreeMap<>(options));
+        System.out.printf("%-11s %9s %10s %9s %9s %9s %7s%n", "operation", "requests", "req/sec", "p50 ms", "p99 ms", "p999 ms", "errors");
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            long[] samples = latencies.get(operation);
+            total += samples.length;
+            System.out.printf("%-11s %9d %10.1f %9.2f %9.2f %9.2f %7d%n", operation.name().toLowerCase(), samples.length,
+                    samples.length / (double) seconds, percentile(samples, 0.50), percentile(samples, 0.99),
+                    percentile(samples, 0.999), workload.errors.get(operation).get());
+        }
+        long[] all = latencies.values().stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-11s %9d %10.1f %9.2f %9.2f %9.2f%n", "all", total, total / (double) seconds,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999));
+        System.out.printf("stanzas received by the stub server: %d%n", Arrays.stream(stanzas).sum());
+        if (stanzas.length > 1) {
+            System.out.println("  per node: " + Arrays.toString(stanzas));
+        }
+
+        double serverBytes = after.serverBytes - before.serverBytes;
+        double processBytes = after.processBytes - before.processBytes;
+        System.out.printf("allocation rate: server threads %.1f MB/s (%.1f KB/request), whole process %.1f MB/s%n",
+                serverBytes / seconds / 1e6, total > 0 ? serverBytes / total / 1e3 : 0, processBytes / seconds / 1e6);
+        if (Boolean.parseBoolean(options.get("virtual-threads"))) {
+            System.out.println("(with virtual threads, request handling is not attributed to Tomcat worker threads)");
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(sortedNanos.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * The virtual users and what they send.
+     */
+    private static final class Workload {
+        private final String baseUri;
+        private final int users;
+        private final String[] tokens;
+        private final Operation[] sendMix;
+        private final int historyPercent;
+        private final long pacingNanos;
+        private final boolean async;
+        private final String attachment;
+        private final Map<Operation, AtomicLong> errors = new LinkedHashMap<>();
+
+        private Workload(String baseUri, JwtUtils jwtUtils, int users, Map<String, String> options) {
+            this.baseUri = baseUri;
+            this.users = users;
+            this.tokens = new String[users];
+            for (int u = 0; u < users; u++) {
+                tokens[u] = jwtUtils.generateJwtToken(userName(u));
+            }
+            this.sendMix = parseMix(options.get("mix"));
+            this.historyPercent = Integer.parseInt(options.get("history"));
+            double rate = Double.parseDouble(options.get("rate"));
+            this.pacingNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            this.async = Boolean.parseBoolean(options.get("async"));
+
+            byte[] content = new byte[Integer.parseInt(options.get("attachment-bytes"))];
+            new Random(42).nextBytes(content);
+            this.attachment = Base64.getEncoder().encodeToString(content);
+            for (Operation operation : Operation.values()) {
+                errors.put(operation, new AtomicLong());
+            }
+        }
+
+        private Map<Operation, long[]> run(int seconds) throws Exception {
+            errors.values().forEach(e -> e.set(0));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<Samples>> results = new ArrayList<>(users);
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+                 HttpClient http = HttpClient.newBuilder()
+                         .version(HttpClient.Version.HTTP_1_1)
+                         .executor(clients)
+                         .connectTimeout(Duration.ofSeconds(10))
+                         .build()) {
+                for (int u = 0; u < users; u++) {
+                    int user = u;
+                    results.add(clients.submit(() -> runUser(http, user, deadline)));
+                }
+                Map<Operation, long[]> merged = new LinkedHashMap<>();
+                List<Samples> perUser = new ArrayList<>(users);
+                for (Future<Samples> result : results) {
+                    perUser.add(result.get());
+                }
+                for (Operation operation : Operation.values()) {
+                    merged.put(operation, perUser.stream()
+                            .flatMapToLong(s -> Arrays.stream(s.get(operation)))
+                            .sorted()
+                            .toArray());
+                }
+                return merged;
+            }
+        }
+
+        private Samples runUser(HttpClient http, int user, long deadline) throws InterruptedException {
+            Random random = new Random(user);
+            Samples samples = new Samples();
+            long next = System.nanoTime();
+            while (System.nanoTime() < deadline) {
+                if (pacingNanos > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    next += pacingNanos;
+                }
+                String peer = userName((user + 1 + random.nextInt(Math.max(1, users - 1))) % users) + "@" + DOMAIN;
+                Operation operation = random.nextInt(100) < historyPercent
+                        ? Operation.HISTORY
+                        : sendMix[random.nextInt(sendMix.length)];
+                HttpRequest request = operation == Operation.HISTORY
+                        ? historyRequest(user, peer)
+                        : sendRequest(user, peer, operation);
+
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() / 100 != 2) {
+                        errors.get(operation).incrementAndGet();
+                        continue;
+                    }
+                } catch (IOException e) {
+                    errors.get(operation).incrementAndGet();
+                    continue;
+                }
+                samples.add(operation, System.nanoTime() - start);
+            }
+            return samples;
+        }
+
+        private HttpRequest sendRequest(int user, String peer, Operation operation) {
+            StringBuilder json = new StringBuilder(attachment.length() + 200)
+                    .append("{\"to\":\"").append(peer).append("\",\"body\":\"load test message from ")
+                    .append(userName(user)).append('"');
+            if (operation == Operation.SEND_MEDIA) {
+                json.append(",\"mediaName\":\"photo.jpg\",\"media\":\"").append(attachment).append('"');
+            } else if (operation == Operation.SEND_FILE) {
+                json.append(",\"fileName\":\"report.pdf\",\"file\":\"").append(attachment).append('"');
+            }
+            json.append('}');
+            return HttpRequest.newBuilder(URI.create(baseUri + "/api/messages/send?async=" + async))
+                    .header("Authorization", "Bearer " + tokens[user])
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(60))
+                    .POST(HttpRequest.BodyPublishers.ofString(json.toString()))
+                    .build();
+        }
+
+        private HttpRequest historyRequest(int user, String peer) {
+            return HttpRequest.newBuilder(URI.create(baseUri + "/api/messages/history?with="
+                            + URLEncoder.encode(peer, StandardCharsets.UTF_8)))
+                    .header("Authorization", "Bearer " + tokens[user])
+                    .timeout(Duration.ofSeconds(60))
+                    .GET()
+                    .build();
+        }
+
+        private static Operation[] parseMix(String mix) {
+            List<Operation> weighted = new ArrayList<>();
+            for (String part : mix.split(",")) {
+                String[] weight = part.split(":");
+                Operation operation = Operation.valueOf("SEND_" + weight[0].trim().toUpperCase());
+                for (int i = 0; i < Integer.parseInt(weight[1].trim()); i++) {
+                    weighted.add(operation);
+                }
+            }
+            if (weighted.isEmpty()) {
+                throw new IllegalArgumentException("Send mix has no weight: " + mix);
+            }
+            return weighted.toArray(new Operation[0]);
+        }
+
+        private static String userName(int user) {
+            return "load" + user;
+        }
+    }
+
+    /**
+     * Latencies of one virtual user, per operation, in nanoseconds.
+     */
+    private static final class Samples {
+        private final long[][] values = new long[Operation.values().length][256];
+        private final int[] counts = new int[Operation.values().length];
+
+        private void add(Operation operation, long nanos) {
+            int i = operation.ordinal();
+            if (counts[i] == values[i].length) {
+                values[i] = Arrays.copyOf(values[i], counts[i] * 2);
+            }
+            values[i][counts[i]++] = nanos;
+        }
+
+        private long[] get(Operation operation) {
+            return Arrays.copyOf(values[operation.ordinal()], counts[operation.ordinal()]);
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the server-side platform threads and by the whole process.
+     */
+    private record Allocation(long serverBytes, long processBytes) {
+
+        private static Allocation sample() {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long server = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                for (String prefix : SERVER_THREADS) {
+                    if (thread.getName().startsWith(prefix)) {
+                        server += Math.max(0, threads.getThreadAllocatedBytes(thread.threadId()));
+                        break;
+                    }
+                }
+            }
+            return new Allocation(server, threads.getTotalThreadAllocatedBytes());
+        }
+    }
+}
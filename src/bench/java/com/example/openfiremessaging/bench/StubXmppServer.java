@@ -0,0 +1,242 @@
+package com.example.openfiremessaging.bench;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Just enough of an XMPP server for Smack clients to connect, log in with SASL PLAIN,
+ * bind a resource and send messages, so benchmarks can run the real send path without
+ * Openfire. Roster requests get an empty roster, every other IQ get/set an empty result,
+ * and every message stanza is counted. There is no TLS and no routing.
+ */
+public final class StubXmppServer implements Closeable {
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("\\s([\\w:-]+)=(?:'([^']*)'|\"([^\"]*)\")");
+    private static final Pattern AUTH_PAYLOAD = Pattern.compile(">([^<]*)</auth>");
+
+    private final String domain;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Set<String> rejectedPasswords = ConcurrentHashMap.newKeySet();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final Thread acceptor;
+
+    public StubXmppServer(String domain) throws IOException {
+        this(domain, 0);
+    }
+
+    /**
+     * Listens on {@code port}, e.g. to bring a cluster node back where it was before.
+     */
+    public StubXmppServer(String domain, int port) throws IOException {
+        this.domain = domain;
+        this.serverSocket = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+        this.acceptor = Thread.ofPlatform().name("stub-xmpp-acceptor").daemon().start(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    /**
+     * Makes SASL fail with not-authorized for this password, to exercise failed logins.
+     */
+    public void rejectPassword(String password) {
+        rejectedPasswords.add(password);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        acceptor.interrupt();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                Thread.ofVirtual().name("stub-xmpp-session").start(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 16384)) {
+            OutputStream out = socket.getOutputStream();
+            StanzaReader reader = new StanzaReader(in);
+            boolean authenticated = false;
+            String jid = null;
+            String element;
+            while ((element = reader.next()) != null) {
+                if (element.startsWith("<stream:stream")) {
+                    write(out, "<?xml version='1.0' encoding='UTF-8'?>"
+                            + "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                            + " from='" + domain + "' id='" + UUID.randomUUID() + "' version='1.0' xml:lang='en'>"
+                            + (authenticated
+                            ? "<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></stream:features>"
+                            : "<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>"
+                            + "<mechanism>PLAIN</mechanism></mechanisms></stream:features>"));
+                } else if (element.startsWith("</stream:stream")) {
+                    write(out, "</stream:stream>");
+                    return;
+                } else if (element.startsWith("<auth")) {
+                    String[] credentials = plainCredentials(element);
+                    if (credentials == null || rejectedPasswords.contains(credentials[1])) {
+                        write(out, "<failure xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><not-authorized/></failure>");
+                    } else {
+                        authenticated = true;
+                        jid = credentials[0] + "@" + domain;
+                        logins.incrementAndGet();
+                        write(out, "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>");
+                    }
+                } else if (element.startsWith("<iq")) {
+                    String id = attribute(element, "id");
+                    String type = attribute(element, "type");
+                    if (element.contains("urn:ietf:params:xml:ns:xmpp-bind")) {
+                        jid = jid + "/" + UUID.randomUUID();
+                        write(out, "<iq type='result' id='" + id + "'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'>"
+                                + "<jid>" + jid + "</jid></bind></iq>");
+                    } else if (element.contains("jabber:iq:roster") && "get".equals(type)) {
+                        write(out, "<iq type='result' id='" + id + "' to='" + jid + "'>"
+                                + "<query xmlns='jabber:iq:roster'/></iq>");
+                    } else if ("get".equals(type) || "set".equals(type)) {
+                        write(out, "<iq type='result' id='" + id + "'" + (jid != null ? " to='" + jid + "'" : "")
+                                + " from='" + domain + "'/>");
+                    }
+                } else if (element.startsWith("<message")) {
+                    messages.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            // Client went away.
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private static void write(OutputStream out, String xml) throws IOException {
+        out.write(xml.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String[] plainCredentials(String auth) {
+        Matcher payload = AUTH_PAYLOAD.matcher(auth);
+        if (!payload.find()) {
+            return null;
+        }
+        // authzid NUL authcid NUL password
+        String decoded = new String(Base64.getDecoder().decode(payload.group(1).trim()), StandardCharsets.UTF_8);
+        String[] parts = decoded.split("\0", -1);
+        return parts.length == 3 ? new String[]{parts[1], parts[2]} : null;
+    }
+
+    private static String attribute(String element, String name) {
+        int end = element.indexOf('>');
+        Matcher matcher = ATTRIBUTE.matcher(end > 0 ? element.substring(0, end) : element);
+        while (matcher.find()) {
+            if (matcher.group(1).equals(name)) {
+                return matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the client's XML stream into top-level elements. The stream header and the
+     * stream close tag are returned on their own, since they never balance.
+     */
+    private static final class StanzaReader {
+        private final BufferedReader in;
+
+        private StanzaReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        private String next() throws IOException {
+            StringBuilder element = new StringBuilder();
+            int depth = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c != '<') {
+                    if (depth > 0) {
+                        element.append((char) c);
+                    }
+                    continue;
+                }
+                String tag = readTag();
+                if (tag == null) {
+                    return null;
+                }
+                if (tag.startsWith("<?")) {
+                    continue;
+                }
+                if (tag.startsWith("<stream:stream") || tag.startsWith("</stream:stream")) {
+                    return tag;
+                }
+                element.append(tag);
+                if (tag.startsWith("</")) {
+                    depth--;
+                } else if (!tag.endsWith("/>")) {
+                    depth++;
+                }
+                if (depth == 0) {
+                    return element.toString();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads one tag after its opening '&lt;', honouring quoted attribute values.
+         */
+        private String readTag() throws IOException {
+            StringBuilder tag = new StringBuilder("<");
+            char quote = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                tag.append((char) c);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '\'' || c == '"') {
+                    quote = (char) c;
+                } else if (c == '>') {
+                    return tag.toString();
+                }
+            }
+            return null;
+        }
+    }
+}
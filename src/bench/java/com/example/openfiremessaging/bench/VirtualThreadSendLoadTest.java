@@ -0,0 +1,202 @@
+package com.example.openfiremessaging.bench;
+
+import com.example.openfiremessaging.security.JwtUtils;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the synchronous {@code POST /api/messages/send} path with many concurrent
+ * virtual users, once on Tomcat's platform thread pool and once with
+ * {@code spring.threads.virtual.enabled=true}, against a {@link StubXmppServer} and an
+ * embedded H2 database. It reports how many sends were in flight inside the servlet at
+ * peak, next to throughput and latency.
+ *
+ * H2 commits in microseconds, so the archive writer lingers for
+ * {@code messaging.archive.linger-ms} to stand in for a real database round trip;
+ * every send blocks for roughly that long, as it would on MySQL.
+ *
+ * Arguments: [virtual users, default 400] [seconds per run, default 15]
+ * [Tomcat max threads, default 32] [archive linger ms, default 20]
+ */
+public final class VirtualThreadSendLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int tomcatThreads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int lingerMs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        Result platform = run(false, users, seconds, tomcatThreads, lingerMs);
+        Result virtual = run(true, users, seconds, tomcatThreads, lingerMs);
+
+        System.out.printf("users=%d seconds=%d tomcat-threads=%d linger-ms=%d%n", users, seconds, tomcatThreads, lingerMs);
+        System.out.println(platform.describe("platform threads"));
+        System.out.println(virtual.describe("virtual threads "));
+    }
+
+    private static Result run(boolean virtualThreads, int users, int seconds, int tomcatThreads, int lingerMs) throws Exception {
+        InFlightFilter inFlight = new InFlightFilter();
+        try (StubXmppServer xmpp = new StubXmppServer("bench.local")) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("spring.main.web-application-type", "servlet");
+            properties.put("server.address", "127.0.0.1");
+            properties.put("server.port", "0");
+            properties.put("server.tomcat.threads.max", String.valueOf(tomcatThreads));
+            properties.put("spring.threads.virtual.enabled", String.valueOf(virtualThreads));
+            properties.put("openfire.host", "127.0.0.1");
+            properties.put("openfire.port", String.valueOf(xmpp.getPort()));
+            properties.put("openfire.domain", "bench.local");
+            properties.put("openfire.pool.size", "2");
+            properties.put("messaging.archive.linger-ms", String.valueOf(lingerMs));
+            properties.put("messaging.conversation-key-backfill.enabled", "false");
+
+            ApplicationContextInitializer<ConfigurableApplicationContext> registerFilter =
+                    context -> context.getBeanFactory().registerSingleton("inFlightFilter", inFlight);
+            try (ConfigurableApplicationContext context = EmbeddedBenchContext.start(
+                    "send-load-" + virtualThreads, properties, registerFilter)) {
+                String port = context.getEnvironment().getProperty("local.server.port");
+                String token = context.getBean(JwtUtils.class).generateJwtToken("loadtest");
+                URI sendUri = URI.create("http://127.0.0.1:" + port + "/api/messages/send");
+
+                // Warm up JIT, connection pools and the archive table before measuring.
+                drive(sendUri, token, Math.min(users, 32), 3);
+                inFlight.reset();
+                long sentBefore = xmpp.getMessageCount();
+
+                Result result = drive(sendUri, token, users, seconds);
+                result.peakInFlight = inFlight.peak.get();
+                result.stanzas = xmpp.getMessageCount() - sentBefore;
+                return result;
+            }
+        }
+    }
+
+    private static Result drive(URI sendUri, String token, int users, int seconds) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        AtomicLong errors = new AtomicLong();
+        List<Future<long[]>> latencies = new ArrayList<>(users);
+
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient http = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .executor(clients)
+                     .connectTimeout(Duration.ofSeconds(10))
+                     .build()) {
+            for (int u = 0; u < users; u++) {
+                HttpRequest request = HttpRequest.newBuilder(sendUri)
+                        .header("Authorization", "Bearer " + token)
+                        .header("Content-Type", "application/json")
+                        .timeout(Duration.ofSeconds(60))
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"to\":\"peer" + (u % 50) + "@bench.local\",\"body\":\"load test message from user " + u + "\"}"))
+                        .build();
+                latencies.add(clients.submit(() -> {
+                    long[] samples = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        long sentAt = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, count * 2);
+                        }
+                        samples[count++] = System.nanoTime() - sentAt;
+                    }
+                    return Arrays.copyOf(samples, count);
+                }));
+            }
+
+            List<long[]> perUser = new ArrayList<>(users);
+            for (Future<long[]> future : latencies) {
+                perUser.add(future.get());
+            }
+            long elapsed = System.nanoTime() - start;
+            long[] all = perUser.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            return new Result(all, errors.get(), elapsed);
+        }
+    }
+
+    /**
+     * Counts requests currently executing inside the servlet container, i.e. holding a
+     * request thread, and remembers the peak.
+     */
+    private static final class InFlightFilter implements Filter {
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                current.decrementAndGet();
+            }
+        }
+
+        private void reset() {
+            peak.set(current.get());
+        }
+    }
+
+    private static final class Result {
+        private final long[] latenciesNanos;
+        private final long errors;
+        private final long elapsedNanos;
+        private int peakInFlight;
+        private long stanzas;
+
+        private Result(long[] latenciesNanos, long errors, long elapsedNanos) {
+            this.latenciesNanos = latenciesNanos;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private String describe(String label) {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%s: peak in-flight=%4d  sends/sec=%,9.0f  p50=%6.1fms  p99=%7.1fms  errors=%d  stanzas=%d",
+                    label, peakInFlight, latenciesNanos.length / seconds,
+                    percentile(0.50), percentile(0.99), errors, stanzas);
+        }
+
+        private double percentile(double p) {
+            if (latenciesNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(latenciesNanos.length - 1, Math.ceil(p * latenciesNanos.length) - 1);
+            return latenciesNanos[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ConversationKeys;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of history pages of {@link AppArchivedMessage}, configured like
+ * Spring Boot's ObjectMapper (java.time module, ISO dates).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class ArchiveSerializationBenchmark {
+
+    @Param({"1", "50", "200"})
+    public int messages;
+
+    private ObjectMapper objectMapper;
+    private List<AppArchivedMessage> page;
+
+    @Setup
+    public void setUp() {
+        objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        Random random = new Random(42);
+        Instant sentDate = Instant.parse("2025-01-01T00:00:00Z");
+        page = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            boolean outgoing = random.nextBoolean();
+            AppArchivedMessage message = new AppArchivedMessage();
+            message.setId(1_000_000L + i);
+            message.setFromJid(outgoing ? "alice@bench.local" : "bob@bench.local");
+            message.setToJid(outgoing ? "bob@bench.local" : "alice@bench.local");
+            message.setConversationKey(ConversationKeys.of("alice@bench.local", "bob@bench.local"));
+            message.setSentDate(sentDate.plusMillis(i * 1500L));
+            message.setBody("message " + i + " " + "x".repeat(random.nextInt(200)));
+            message.setMessageType(random.nextInt(8));
+            if (random.nextInt(4) == 0) {
+                message.setFileName("3f786850e387550fdab836ed7e6dc881de23001b3f786850e387550fdab836ed.pdf");
+                message.setFileAdd("/var/attachments/files/3f/78/3f786850e387550fdab836ed7e6dc881de23001b3f786850e387550fdab836ed");
+            }
+            page.add(message);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.service.AttachmentStorage;
+import com.example.openfiremessaging.service.StagedAttachment;
+import com.example.openfiremessaging.service.StoredAttachment;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 attachment from the JSON API: {@link AttachmentStorage#stage} decoding the string
+ * token straight from the parser into a hashed temp file, then the move into place by
+ * {@link AttachmentStorage#store(StagedAttachment, String)}. The blob repository is a
+ * stub that never deduplicates, so this is the full write path without the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class AttachmentStoreBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private Path directory;
+    private AttachmentStorage attachmentStorage;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("attachment-bench");
+        MessagingMetrics metrics = BenchFixtures.metrics();
+        attachmentStorage = new AttachmentStorage(BenchFixtures.emptyBlobRepository(),
+                BenchFixtures.downstreamLimits(metrics), metrics,
+                directory.resolve("files").toString(), directory.resolve("media").toString(), 65536,
+                false, List.of(), 1024);
+
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        json = ("\"" + Base64.getEncoder().encodeToString(content) + "\"").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public StoredAttachment stageAndStore() throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            StagedAttachment staged = attachmentStorage.stage(AttachmentStorage.Kind.FILE, out -> parser.readBinaryValue(out));
+            return attachmentStorage.store(staged, "attachment.bin");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.repository.AttachmentBlobRepository;
+import com.example.openfiremessaging.security.JwtUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+
+/**
+ * Builds the components under benchmark by hand, without a Spring context, so each
+ * benchmark measures only the code path it names.
+ */
+final class BenchFixtures {
+
+    static final String JWT_SECRET = "BenchmarkSecretKeyForJWTsThatIsLongEnoughForHmacSha";
+
+    private BenchFixtures() {
+    }
+
+    static MessagingMetrics metrics() {
+        return new MessagingMetrics(new SimpleMeterRegistry());
+    }
+
+    static DownstreamLimits downstreamLimits(MessagingMetrics metrics) {
+        return new DownstreamLimits(metrics, 64, 32, 10, 2, 5000, 50);
+    }
+
+    static JwtUtils jwtUtils(int verifiedCacheSize) {
+        JwtUtils jwtUtils = new JwtUtils(metrics());
+        setField(jwtUtils, "jwtSecret", JWT_SECRET);
+        setField(jwtUtils, "jwtExpirationMs", 86_400_000);
+        setField(jwtUtils, "verifiedCacheSize", verifiedCacheSize);
+        jwtUtils.init();
+        return jwtUtils;
+    }
+
+    /**
+     * A blob repository that never finds an existing blob, so every store takes the
+     * full decode, hash and write path.
+     */
+    static AttachmentBlobRepository emptyBlobRepository() {
+        return (AttachmentBlobRepository) Proxy.newProxyInstance(BenchFixtures.class.getClassLoader(),
+                new Class<?>[]{AttachmentBlobRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.empty();
+                    case "save" -> args[0];
+                    case "adjustRefCount", "deleteIfUnreferenced" -> 0;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "EmptyBlobRepository";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name, e);
+        }
+    }
+}
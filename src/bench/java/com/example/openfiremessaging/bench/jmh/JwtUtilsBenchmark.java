@@ -0,0 +1,55 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.security.JwtUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token issue on login and token checks on every authenticated request: served from the
+ * verified-token cache, and with the cache disabled so every check verifies the HMAC.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class JwtUtilsBenchmark {
+
+    private JwtUtils cached;
+    private JwtUtils uncached;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        cached = BenchFixtures.jwtUtils(10_000);
+        uncached = BenchFixtures.jwtUtils(0);
+        token = cached.generateJwtToken("bench-user");
+        cached.getVerifiedSubject(token);
+    }
+
+    @Benchmark
+    public String generate() {
+        return cached.generateJwtToken("bench-user");
+    }
+
+    @Benchmark
+    public String validateCached() {
+        return cached.getVerifiedSubject(token);
+    }
+
+    @Benchmark
+    public String validateUncached() {
+        return uncached.getVerifiedSubject(token);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.service.MessageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MessageService#determineMessageType} over all eight body/media/file
+ * combinations, so the branch profile is not skewed towards one outcome.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class MessageTypeBenchmark {
+
+    private MessageService messageService;
+    private boolean[] flags;
+
+    @Setup
+    public void setUp() {
+        // determineMessageType uses none of the collaborators.
+        messageService = new MessageService(null, null, null, null, null, null, null, null, null, null, null, "bench.local", 50, 200, 1000);
+        flags = new boolean[24];
+        for (int combination = 0; combination < 8; combination++) {
+            flags[combination * 3] = (combination & 1) != 0;
+            flags[combination * 3 + 1] = (combination & 2) != 0;
+            flags[combination * 3 + 2] = (combination & 4) != 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void determineMessageType(Blackhole blackhole) {
+        for (int i = 0; i < flags.length; i += 3) {
+            blackhole.consume(messageService.determineMessageType(flags[i], flags[i + 1], flags[i + 2]));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.openfiremessaging.bench.jmh;
+
+import com.example.openfiremessaging.dto.MessageDto;
+import com.example.openfiremessaging.service.AttachmentStorage;
+import com.example.openfiremessaging.service.StagedAttachment;
+import com.example.openfiremessaging.validation.MessageValidator;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MessageValidator#isValid} on its own, and the full bean validation of a
+ * {@link MessageDto} as done for each JSON send. Attachments arrive already staged, so
+ * they are handles to 64 KiB files that are never read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Benchmark)
+public class MessageValidatorBenchmark {
+
+    @Param({"body", "body_file", "body_media_file"})
+    public String shape;
+
+    private final MessageValidator messageValidator = new MessageValidator();
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private MessageDto message;
+
+    @Setup
+    public void setUp() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+
+        message = new MessageDto();
+        message.setTo("peer@bench.local");
+        message.setBody("benchmark message body");
+        if (shape.contains("file")) {
+            message.setFile(new StagedAttachment(Paths.get("report.pdf"), AttachmentStorage.Kind.FILE, 64 * 1024, ""));
+            message.setFileName("report.pdf");
+        }
+        if (shape.contains("media")) {
+            message.setMedia(new StagedAttachment(Paths.get("photo.jpg"), AttachmentStorage.Kind.MEDIA, 64 * 1024, ""));
+            message.setMediaName("photo.jpg");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        // Valid messages never touch the context.
+        return messageValidator.isValid(message, null);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<MessageDto>> beanValidation() {
+        return validator.validate(message);
+    }
+}
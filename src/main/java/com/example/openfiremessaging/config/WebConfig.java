@@ -0,0 +1,24 @@
+package com.example.openfiremessaging.config;
+
+import com.example.openfiremessaging.limits.AdmissionControl;
+import com.example.openfiremessaging.limits.AdmissionInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final AdmissionControl admissionControl;
+
+    // Checked after authentication, so sends are limited per user; logins per client address.
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AdmissionInterceptor(admissionControl, AdmissionControl.Route.SEND))
+                .addPathPatterns("/api/messages/send", "/api/messages/broadcast");
+        registry.addInterceptor(new AdmissionInterceptor(admissionControl, AdmissionControl.Route.LOGIN))
+                .addPathPatterns("/api/auth/login");
+    }
+}
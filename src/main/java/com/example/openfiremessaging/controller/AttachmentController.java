@@ -0,0 +1,331 @@
+package com.example.openfiremessaging.controller;
+
+import com.example.openfiremessaging.service.AttachmentFile;
+import com.example.openfiremessaging.service.AttachmentStorage;
+import com.example.openfiremessaging.service.MessageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves message attachments to the sender and the recipient of the message.
+ *
+ * The bytes never pass through the heap: on Tomcat's NIO connector the response is
+ * handed to the connector's sendfile support, which copies the file to the socket in the
+ * kernel after the handler returns; elsewhere the file is pushed with
+ * {@link FileChannel#transferTo} into the servlet output stream. Single byte ranges are
+ * honoured so media can be seeked and downloads resumed, and the blob hash is the strong
+ * entity tag for {@code If-None-Match} and {@code If-Range}.
+ *
+ * An attachment stored gzipped is sent as it is on disk, with {@code Content-Encoding:
+ * gzip}, to clients that accept it, sendfile included. Other clients and range requests
+ * get the original bytes, decompressed while they are sent.
+ */
+@RestController
+@RequestMapping("/api/messages")
+@Slf4j
+public class AttachmentController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final MessageService messageService;
+    private final long sendfileMinBytes;
+
+    public AttachmentController(MessageService messageService,
+                                @Value("${file.download.sendfile-min-bytes:49152}") long sendfileMinBytes) {
+        this.messageService = messageService;
+        this.sendfileMinBytes = sendfileMinBytes;
+    }
+
+    /**
+     * Downloads the {@code file} or {@code media} attachment of a message. GET and HEAD.
+     */
+    @GetMapping("/{messageId}/attachments/{kind}")
+    public ResponseEntity<?> downloadAttachment(@PathVariable Long messageId,
+                                                @PathVariable String kind,
+                                                HttpServletRequest request,
+                                                HttpServletResponse response) {
+        AttachmentStorage.Kind attachmentKind;
+        if ("file".equals(kind)) {
+            attachmentKind = AttachmentStorage.Kind.FILE;
+        } else if ("media".equals(kind)) {
+            attachmentKind = AttachmentStorage.Kind.MEDIA;
+        } else {
+            return ResponseEntity.badRequest().body("Unknown attachment kind: " + kind);
+        }
+
+        Optional<AttachmentFile> found;
+        try {
+            found = messageService.findAttachment(messageId, attachmentKind);
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to resolve {} attachment of message {}", kind, messageId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to download attachment: " + e.getMessage());
+        }
+        if (found.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No " + kind + " attachment on message " + messageId);
+        }
+        AttachmentFile attachment = found.get();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(attachment.getEtag());
+        headers.setLastModified(attachment.getLastModified());
+        headers.setCacheControl("private, max-age=86400");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (attachment.isGzipped()) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        if (notModified(request, attachment)) {
+            if (attachment.isGzipped() && acceptsGzip(request)) {
+                headers.setETag(gzipEtag(attachment.getEtag()));
+            }
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        long size = attachment.getSize();
+        long start = 0;
+        long end = size - 1;
+        boolean partial = false;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplies(request, attachment)) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == UNSATISFIABLE) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                partial = true;
+            }
+        }
+        long length = end - start + 1;
+        // Ranges are served from the original bytes, everything else as stored if the client can take it.
+        boolean sendGzipped = attachment.isGzipped() && !partial && acceptsGzip(request);
+        if (sendGzipped) {
+            headers.setETag(gzipEtag(attachment.getEtag()));
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            length = attachment.getStoredSize();
+            end = length - 1;
+        }
+
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setStatus(partial ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+        if (partial) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+        response.setContentType(MediaTypeFactory.getMediaType(attachment.getName())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition
+                .builder(attachmentKind == AttachmentStorage.Kind.MEDIA ? "inline" : "attachment")
+                .filename(attachment.getName())
+                .build().toString());
+        response.setContentLengthLong(length);
+
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return null;
+        }
+        try {
+            if (length >= sendfileMinBytes && (sendGzipped || !attachment.isGzipped()) && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                // Tomcat picks these up when it commits the response and streams the range itself.
+                request.setAttribute(SENDFILE_FILENAME, attachment.getPath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+            } else if (attachment.isGzipped() && !sendGzipped) {
+                transferDecompressed(attachment, start, length, response);
+            } else {
+                transfer(attachment, start, length, response);
+            }
+        } catch (IOException e) {
+            // Almost always the client going away mid-download; the status line is already sent.
+            log.debug("Download of {} attachment of message {} aborted: {}", kind, messageId, e.getMessage());
+        }
+        return null;
+    }
+
+    private static void transfer(AttachmentFile attachment, long start, long length,
+                                 HttpServletResponse response) throws IOException {
+        try (FileChannel file = FileChannel.open(attachment.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    throw new IOException("Attachment " + attachment.getPath() + " is shorter than expected");
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    private static void transferDecompressed(AttachmentFile attachment, long start, long length,
+                                             HttpServletResponse response) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(attachment.getPath()), 8192)) {
+            in.skipNBytes(start);
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Attachment " + attachment.getPath() + " is shorter than expected");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Whether {@code Accept-Encoding} lists gzip, or {@code *}, without {@code q=0}.
+     */
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The gzip-encoded bytes are a different representation, so they get their own tag.
+     */
+    private static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * {@code If-None-Match} (weak comparison, so weak tags match too, as does the tag of
+     * the gzipped representation) or, without it, {@code If-Modified-Since}.
+     */
+    private static boolean notModified(HttpServletRequest request, AttachmentFile attachment) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String opaque = opaqueTag(attachment.getEtag());
+            String gzipOpaque = opaqueTag(gzipEtag(attachment.getEtag()));
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = opaqueTag(candidate.trim());
+                if (tag.equals("*") || tag.equals(opaque) || tag.equals(gzipOpaque)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && attachment.getLastModified().toEpochMilli() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * A range is only honoured if {@code If-Range}, when present, still describes the
+     * same bytes: a strong tag match, or an unchanged modification date.
+     */
+    private static boolean rangeApplies(HttpServletRequest request, AttachmentFile attachment) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return attachment.hasStrongEtag() && ifRange.trim().equals(attachment.getEtag());
+        }
+        long date = dateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && attachment.getLastModified().toEpochMilli() / 1000 == date / 1000;
+    }
+
+    /**
+     * Parses a single {@code bytes=} range into inclusive bounds. Returns null when the
+     * whole entity should be sent instead: malformed headers, other units and multiple
+     * ranges, which this endpoint does not serve as multipart responses.
+     */
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long first = Long.parseLong(spec.substring(0, dash));
+            long last = dash == spec.length() - 1 ? size - 1 : Long.parseLong(spec.substring(dash + 1));
+            if (first >= size) {
+                return UNSATISFIABLE;
+            }
+            if (last < first) {
+                return null;
+            }
+            return new long[]{first, Math.min(last, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
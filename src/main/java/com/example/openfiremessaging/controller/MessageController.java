@@ -1,15 +1,36 @@
 package com.example.openfiremessaging.controller;
 
+import com.example.openfiremessaging.dto.BroadcastMessageDto;
+import com.example.openfiremessaging.dto.BroadcastResponse;
+import com.example.openfiremessaging.dto.DeliveryStatus;
+import com.example.openfiremessaging.dto.InboxPage;
 import com.example.openfiremessaging.dto.MessageDto;
-import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.dto.MessageHistoryPage;
+import com.example.openfiremessaging.dto.MessageSearchPage;
+import com.example.openfiremessaging.dto.MultipartMessageDto;
+import com.example.openfiremessaging.dto.SendAcceptedResponse;
+import com.example.openfiremessaging.search.MessageSearchIndex;
+import com.example.openfiremessaging.service.ConversationExporter;
+import com.example.openfiremessaging.service.InboxService;
+import com.example.openfiremessaging.service.MessageSendPipeline;
 import com.example.openfiremessaging.service.MessageService;
+import com.example.openfiremessaging.service.MessageStreamHub;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import java.util.List;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/messages")
@@ -18,13 +39,42 @@ import java.util.List;
 public class MessageController {
 
     private final MessageService messageService;
+    private final MessageSendPipeline messageSendPipeline;
+    private final MessageStreamHub messageStreamHub;
+    private final InboxService inboxService;
+    private final MessageSearchIndex messageSearchIndex;
+    private final ConversationExporter conversationExporter;
 
     @PostMapping(path = "/send")
-    public ResponseEntity<?> sendMessage(@Valid @RequestBody MessageDto messageDto) {
+    public ResponseEntity<?> sendMessage(@Valid @RequestBody MessageDto messageDto,
+                                         @RequestParam(defaultValue = "${messaging.send.async:false}") boolean async) {
+        if (async) {
+            String messageId = messageSendPipeline.submit(messageDto);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(new SendAcceptedResponse(messageId, DeliveryStatus.QUEUED));
+        }
+
         // The file from the request is now inside messageDto.getFile()
         try {
             messageService.sendMessage(messageDto);
             return ResponseEntity.ok("Message sent and archived successfully");
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to send message", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to send message: " + e.getMessage());
+        }
+    }
+
+    @PostMapping(path = "/send", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> sendMultipartMessage(@Valid @ModelAttribute MultipartMessageDto messageDto) {
+        // Attachments are streamed from the request parts straight to the attachment directories
+        try {
+            messageService.sendMessage(messageDto);
+            return ResponseEntity.ok("Message sent and archived successfully");
+        } catch (RejectedExecutionException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to send message", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -32,15 +82,163 @@ public class MessageController {
         }
     }
 
+    /**
+     * Sends one message to a list of recipients, with the outcome for each of them.
+     */
+    @PostMapping(path = "/broadcast")
+    public ResponseEntity<?> broadcastMessage(@Valid @RequestBody BroadcastMessageDto messageDto) {
+        try {
+            BroadcastResponse response = messageService.broadcast(messageDto);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid broadcast: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to broadcast message", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to broadcast message: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/status/{messageId}")
+    public ResponseEntity<?> getDeliveryStatus(@PathVariable String messageId) {
+        return messageSendPipeline.getStatus(messageId, messageService.currentUserJid())
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown message id: " + messageId));
+    }
+
+    /**
+     * Server-Sent Events stream of the caller's new messages, sent and received.
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMessages() {
+        return messageStreamHub.subscribe(messageService.currentUserJid());
+    }
+
     @GetMapping("/history")
-    public ResponseEntity<?> getMessageHistory(@RequestParam String with) {
+    public ResponseEntity<?> getMessageHistory(@RequestParam String with,
+                                               @RequestParam(required = false) String before,
+                                               @RequestParam(required = false) String after,
+                                               @RequestParam(required = false) Integer limit) {
         try {
-            List<AppArchivedMessage> history = messageService.getMessageHistory(with);
-            return ResponseEntity.ok(history);
+            MessageHistoryPage history = messageService.getMessageHistory(with, before, after, limit);
+            if (history.getEtag() == null) {
+                return ResponseEntity.ok(history);
+            }
+            // Spring answers a matching If-None-Match with 304 and skips serializing the body.
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .eTag(history.getEtag())
+                    .body(history);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid history request: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to retrieve message history for user {}", with, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Failed to retrieve message history: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The whole conversation with {@code with} as newline-delimited JSON, oldest message
+     * first, written while it is read. {@code gzip=true} sends it as a {@code .ndjson.gz}
+     * file instead.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<?> exportConversation(@RequestParam String with,
+                                                @RequestParam(defaultValue = "false") boolean gzip,
+                                                HttpServletResponse response) {
+        String ownerJid = messageService.currentUserJid();
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(gzip ? "application/gzip" : MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("conversation-" + with + (gzip ? ".ndjson.gz" : ".ndjson"))
+                .build().toString());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        try {
+            // A sync-flushing gzip stream, so every flush of the export reaches the client.
+            OutputStream out = gzip ? new GZIPOutputStream(response.getOutputStream(), 8192, true) : response.getOutputStream();
+            conversationExporter.export(ownerJid, with, out);
+            if (out instanceof GZIPOutputStream compressed) {
+                compressed.finish();
+            }
+            return null;
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                // Part of the export is out. Failing the request makes the container abort the
+                // connection, so the client sees a broken transfer rather than a short file.
+                log.warn("Export of conversation between {} and {} aborted: {}", ownerJid, with, e.getMessage());
+                throw new IllegalStateException("Export aborted", e);
+            }
+            response.reset();
+            if (e instanceof RejectedExecutionException rejected) {
+                throw rejected;
+            }
+            log.error("Failed to export conversation", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to export conversation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The caller's conversations, most recently active first, with unread counts.
+     */
+    @GetMapping("/inbox")
+    public ResponseEntity<?> getInbox(@RequestParam(required = false) String before,
+                                      @RequestParam(required = false) Integer limit) {
+        try {
+            InboxPage inbox = inboxService.getInbox(messageService.currentUserJid(), before, limit);
+            return ResponseEntity.ok(inbox);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid inbox request: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to retrieve inbox", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to retrieve inbox: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marks the conversation with {@code with} as read, up to message {@code upTo} if given.
+     */
+    @PostMapping("/inbox/read")
+    public ResponseEntity<?> markConversationRead(@RequestParam String with,
+                                                  @RequestParam(required = false) Long upTo) {
+        try {
+            inboxService.markRead(messageService.currentUserJid(), with, upTo);
+            return ResponseEntity.noContent().build();
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to mark conversation with {} read", with, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to mark conversation read: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Full-text search over the caller's messages, best match first, optionally only the
+     * conversation with {@code with}. Pages are numbered from 0.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchMessages(@RequestParam String q,
+                                            @RequestParam(required = false) String with,
+                                            @RequestParam(defaultValue = "0") int page,
+                                            @RequestParam(required = false) Integer limit) {
+        try {
+            MessageSearchPage results = messageSearchIndex.search(messageService.currentUserJid(), with, q, page, limit);
+            return ResponseEntity.ok(results);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid search request: " + e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to search messages for '{}'", q, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to search messages: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.openfiremessaging.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Answers requests turned away by a full queue or a saturated bulkhead with 429 and a
+ * {@code Retry-After}, like the admission limits in front of send and login.
+ */
+@Slf4j
+@RestControllerAdvice
+public class OverloadExceptionHandler {
+
+    private final long retryAfterSeconds;
+
+    public OverloadExceptionHandler(@Value("${messaging.limits.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> handleRejected(RejectedExecutionException e) {
+        log.warn("Rejecting request: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage() + ", retry later");
+    }
+}
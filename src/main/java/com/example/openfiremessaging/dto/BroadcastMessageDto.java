@@ -0,0 +1,28 @@
+package com.example.openfiremessaging.dto;
+
+import com.example.openfiremessaging.service.StagedAttachment;
+import com.example.openfiremessaging.validationrepo.ValidMessage;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One message for many recipients. The content fields follow the same rules as
+ * {@link MessageDto}; the attachment is stored once and shared by every copy.
+ */
+@ValidMessage
+@NoArgsConstructor
+@Data
+public class BroadcastMessageDto {
+
+    @NotEmpty(message = "Recipient list 'to' cannot be empty")
+    private List<String> to;
+
+    private String body;
+    private String mediaName;
+    private StagedAttachment media;
+    private String fileName;
+    private StagedAttachment file;
+}
@@ -0,0 +1,18 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * What happened for one recipient of a broadcast: {@code ARCHIVED} with the archive id
+ * of its copy, {@code SENT} if the stanza went out but the copy could not be archived,
+ * or {@code FAILED} if nothing was delivered.
+ */
+@Data
+@AllArgsConstructor
+public class BroadcastRecipientResult {
+    private String to;
+    private DeliveryStatus status;
+    private Long messageId;
+    private String error;
+}
@@ -0,0 +1,19 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Per-recipient outcome of a broadcast, in the order the recipients were given
+ * (duplicates removed).
+ */
+@Data
+@AllArgsConstructor
+public class BroadcastResponse {
+    private int recipients;
+    private int delivered;
+    private int failed;
+    private List<BroadcastRecipientResult> results;
+}
@@ -0,0 +1,11 @@
+package com.example.openfiremessaging.dto;
+
+/**
+ * Lifecycle of a message accepted by the asynchronous send pipeline.
+ */
+public enum DeliveryStatus {
+    QUEUED,
+    SENT,
+    ARCHIVED,
+    FAILED
+}
@@ -0,0 +1,15 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class DeliveryStatusDto {
+    private String messageId;
+    private DeliveryStatus status;
+    private String error;
+    private Instant updatedAt;
+}
@@ -0,0 +1,37 @@
+package com.example.openfiremessaging.dto;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Opaque keyset position in a conversation: the {@code (sentDate, id)} of a message,
+ * encoded URL-safe so clients can hand it back as {@code before} or {@code after}.
+ */
+public record HistoryCursor(Instant sentDate, long id) {
+
+    public static HistoryCursor of(AppArchivedMessage message) {
+        return new HistoryCursor(message.getSentDate(), message.getId());
+    }
+
+    public static HistoryCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            String[] parts = raw.split("\\.");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Malformed history cursor");
+            }
+            Instant sentDate = Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            return new HistoryCursor(sentDate, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed history cursor", e);
+        }
+    }
+
+    public String encode() {
+        String raw = sentDate.getEpochSecond() + "." + sentDate.getNano() + "." + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.openfiremessaging.dto;
+
+import com.example.openfiremessaging.model.ConversationSummary;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of the caller's conversations, most recently active first. Pass
+ * {@code nextCursor} as {@code before} to fetch the next page.
+ */
+@Data
+@AllArgsConstructor
+public class InboxPage {
+    private List<ConversationSummary> conversations;
+    private String nextCursor;
+    private boolean hasMore;
+}
@@ -1,5 +1,6 @@
 package com.example.openfiremessaging.dto;
 
+import com.example.openfiremessaging.service.StagedAttachment;
 import com.example.openfiremessaging.validationrepo.ValidMessage;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.NotBlank;
@@ -21,14 +22,15 @@ public class MessageDto {
 
     private String body;
     private String mediaName;
-    private String media;
+    // Base64 in the JSON body, decoded into a temp file while the body is parsed.
+    private StagedAttachment media;
     private String fileName;
-    private String file;
+    private StagedAttachment file;
     private String mediaAdd;
     private String fileAdd;
 
 
-    public MessageDto(String body,String fileName, String media, String to,String attachAdd,String mediaName,String file) {
+    public MessageDto(String body,String fileName, StagedAttachment media, String to,String attachAdd,String mediaName,StagedAttachment file) {
         this.body = body;
         this.fileName = fileName;
         this.media = media;
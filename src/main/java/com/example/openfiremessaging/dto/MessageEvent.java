@@ -0,0 +1,33 @@
+package com.example.openfiremessaging.dto;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * A message pushed to connected clients on {@code /api/messages/stream}. For archived
+ * messages {@code cursor} is the history cursor of the row, so a client that missed
+ * events can catch up with {@code /history?after=<cursor>}; it is null for stanzas that
+ * arrived over XMPP without passing through this service.
+ */
+@Data
+@AllArgsConstructor
+public class MessageEvent {
+    private Long id;
+    private String cursor;
+    private String fromJid;
+    private String toJid;
+    private String body;
+    private Integer messageType;
+    private String fileName;
+    private String mediaName;
+    private Instant sentDate;
+
+    public static MessageEvent of(AppArchivedMessage message) {
+        return new MessageEvent(message.getId(), HistoryCursor.of(message).encode(), message.getFromJid(),
+                message.getToJid(), message.getBody(), message.getMessageType(), message.getFileName(),
+                message.getMediaName(), message.getSentDate());
+    }
+}
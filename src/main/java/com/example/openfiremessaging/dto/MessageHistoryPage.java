@@ -0,0 +1,27 @@
+package com.example.openfiremessaging.dto;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a conversation, oldest message first. Pass {@code olderCursor} as
+ * {@code before} to page back in time, or {@code newerCursor} as {@code after} to fetch
+ * what arrived since. {@code hasMore} tells whether the page was cut off by the limit
+ * in the direction that was requested.
+ *
+ * Latest pages carry an {@code etag}, sent as a response header rather than in the body.
+ */
+@Data
+@AllArgsConstructor
+public class MessageHistoryPage {
+    private List<AppArchivedMessage> messages;
+    private String olderCursor;
+    private String newerCursor;
+    private boolean hasMore;
+    @JsonIgnore
+    private String etag;
+}
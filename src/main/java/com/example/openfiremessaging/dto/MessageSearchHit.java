@@ -0,0 +1,21 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * One search result: the archived message id, who it was exchanged with, and the best
+ * matching passage of its body with the matched terms in {@code <b>} tags.
+ */
+@Data
+@AllArgsConstructor
+public class MessageSearchHit {
+    private Long id;
+    private String fromJid;
+    private String peerJid;
+    private Instant sentDate;
+    private float score;
+    private String snippet;
+}
@@ -0,0 +1,20 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of search results, best match first. {@code totalHits} is exact up to a
+ * thousand matches and a lower bound beyond that.
+ */
+@Data
+@AllArgsConstructor
+public class MessageSearchPage {
+    private List<MessageSearchHit> hits;
+    private int page;
+    private int size;
+    private long totalHits;
+    private boolean hasMore;
+}
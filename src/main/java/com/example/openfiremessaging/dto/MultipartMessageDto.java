@@ -0,0 +1,46 @@
+package com.example.openfiremessaging.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * A message sent as multipart/form-data: text fields plus optional "file" and "media"
+ * parts carrying the raw attachment bytes. The original file names come from the parts.
+ */
+@NoArgsConstructor
+@Data
+public class MultipartMessageDto {
+
+    @NotBlank(message = "Recipient 'to' field cannot be blank")
+    private String to;
+
+    private String body;
+    private MultipartFile file;
+    private MultipartFile media;
+
+    public boolean hasFile() {
+        return file != null && !file.isEmpty();
+    }
+
+    public boolean hasMedia() {
+        return media != null && !media.isEmpty();
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Message is empty. Please provide a body, media, or file.")
+    public boolean isContentPresent() {
+        return StringUtils.hasText(body) || hasFile() || hasMedia();
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Attachment parts must have a file name.")
+    public boolean isAttachmentNamed() {
+        return (!hasFile() || StringUtils.hasText(file.getOriginalFilename()))
+                && (!hasMedia() || StringUtils.hasText(media.getOriginalFilename()));
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.openfiremessaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class SendAcceptedResponse {
+    private String messageId;
+    private DeliveryStatus status;
+}
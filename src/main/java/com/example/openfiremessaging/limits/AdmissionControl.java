@@ -0,0 +1,163 @@
+package com.example.openfiremessaging.limits;
+
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rate limits in front of the endpoints that open work on Openfire: sends and logins.
+ *
+ * Each route has a global {@link TokenBucket} and one per caller (the authenticated user
+ * for sends, the client address for logins, which have no user yet; behind a proxy that
+ * is the forwarded address, see {@code server.forward-headers-strategy}). A request is
+ * admitted only if both have a token; the caller's bucket is asked first, so one caller
+ * hammering the endpoint is turned away without draining the shared budget. Rejections
+ * carry the time until a token frees up, for {@code Retry-After}.
+ *
+ * Rates can be changed at runtime through {@code /actuator/admission}; the buckets of a
+ * route share its current {@link TokenBucket.Rate}. Per-caller buckets that have
+ * refilled completely are dropped periodically.
+ */
+@Slf4j
+@Component
+public class AdmissionControl {
+
+    public enum Route {
+        SEND("send"),
+        LOGIN("login");
+
+        private final String tag;
+
+        Route(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    public enum Scope {
+        GLOBAL("global"),
+        CALLER("caller");
+
+        private final String tag;
+
+        Scope(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final Map<Route, RouteLimits> routes = new EnumMap<>(Route.class);
+    private final MessagingMetrics messagingMetrics;
+    private final boolean enabled;
+
+    public AdmissionControl(MessagingMetrics messagingMetrics,
+                            @Value("${messaging.admission.enabled:true}") boolean enabled,
+                            @Value("${messaging.admission.send.global-rate:1000}") double sendGlobalRate,
+                            @Value("${messaging.admission.send.global-burst:2000}") int sendGlobalBurst,
+                            @Value("${messaging.admission.send.caller-rate:20}") double sendCallerRate,
+                            @Value("${messaging.admission.send.caller-burst:50}") int sendCallerBurst,
+                            @Value("${messaging.admission.login.global-rate:50}") double loginGlobalRate,
+                            @Value("${messaging.admission.login.global-burst:100}") int loginGlobalBurst,
+                            @Value("${messaging.admission.login.caller-rate:10}") double loginCallerRate,
+                            @Value("${messaging.admission.login.caller-burst:50}") int loginCallerBurst) {
+        this.messagingMetrics = messagingMetrics;
+        this.enabled = enabled;
+        routes.put(Route.SEND, new RouteLimits(new TokenBucket.Rate(sendGlobalRate, sendGlobalBurst),
+                new TokenBucket.Rate(sendCallerRate, sendCallerBurst)));
+        routes.put(Route.LOGIN, new RouteLimits(new TokenBucket.Rate(loginGlobalRate, loginGlobalBurst),
+                new TokenBucket.Rate(loginCallerRate, loginCallerBurst)));
+        routes.forEach((route, limits) -> {
+            messagingMetrics.gauge("messaging.admission." + route.getTag() + ".global.rate",
+                    "Admitted " + route.getTag() + " requests per second, all callers", limits, l -> l.globalRate.perSecond());
+            messagingMetrics.gauge("messaging.admission." + route.getTag() + ".caller.rate",
+                    "Admitted " + route.getTag() + " requests per second, per caller", limits, l -> l.callerRate.perSecond());
+            messagingMetrics.gauge("messaging.admission." + route.getTag() + ".callers",
+                    "Callers with a partly drained " + route.getTag() + " bucket", limits.callers, Map::size);
+        });
+    }
+
+    /**
+     * Takes a token for one request of {@code caller} on {@code route}.
+     *
+     * @return 0 if the request is admitted, otherwise the nanoseconds until it could be
+     */
+    public long admit(Route route, String caller) {
+        if (!enabled) {
+            return 0;
+        }
+        RouteLimits limits = routes.get(route);
+        TokenBucket.Rate callerRate = limits.callerRate;
+        TokenBucket callerBucket = limits.callers.computeIfAbsent(caller, k -> new TokenBucket());
+        long wait = callerBucket.tryAcquire(callerRate);
+        if (wait > 0) {
+            messagingMetrics.recordAdmissionRejected(route, Scope.CALLER);
+            return wait;
+        }
+        wait = limits.global.tryAcquire(limits.globalRate);
+        if (wait > 0) {
+            callerBucket.refund(callerRate);
+            messagingMetrics.recordAdmissionRejected(route, Scope.GLOBAL);
+            return wait;
+        }
+        return 0;
+    }
+
+    public void setRate(Route route, Scope scope, TokenBucket.Rate rate) {
+        RouteLimits limits = routes.get(route);
+        if (scope == Scope.GLOBAL) {
+            limits.globalRate = rate;
+        } else {
+            limits.callerRate = rate;
+        }
+        log.info("Admission rate for {} ({}) set to {}/s, burst {}.", route.getTag(), scope.getTag(),
+                rate.perSecond(), rate.burst());
+    }
+
+    public TokenBucket.Rate getRate(Route route, Scope scope) {
+        RouteLimits limits = routes.get(route);
+        return scope == Scope.GLOBAL ? limits.globalRate : limits.callerRate;
+    }
+
+    @Scheduled(fixedDelayString = "${messaging.admission.eviction-interval-ms:60000}")
+    public void evictIdleCallers() {
+        routes.values().forEach(limits -> limits.callers.values().removeIf(TokenBucket::isFull));
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        routes.forEach((route, limits) -> {
+            Map<String, Object> routeStatus = new LinkedHashMap<>();
+            routeStatus.put(Scope.GLOBAL.getTag(), limits.globalRate);
+            routeStatus.put(Scope.CALLER.getTag(), limits.callerRate);
+            routeStatus.put("trackedCallers", limits.callers.size());
+            status.put(route.getTag(), routeStatus);
+        });
+        return status;
+    }
+
+    private static final class RouteLimits {
+        private final TokenBucket global = new TokenBucket();
+        private final Map<String, TokenBucket> callers = new ConcurrentHashMap<>();
+        private volatile TokenBucket.Rate globalRate;
+        private volatile TokenBucket.Rate callerRate;
+
+        private RouteLimits(TokenBucket.Rate globalRate, TokenBucket.Rate callerRate) {
+            this.globalRate = globalRate;
+            this.callerRate = callerRate;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.openfiremessaging.limits;
+
+import com.example.openfiremessaging.service.AuthService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/admission}: the current rate and concurrency limits, and a POST to
+ * {@code /actuator/admission/{name}} to change one without a restart. Names are
+ * {@code send.global}, {@code send.caller}, {@code login.global}, {@code login.caller}
+ * (with {@code rate} and/or {@code burst}), a bulkhead name or {@code login-verification}
+ * (with {@code limit}). Not exposed over HTTP unless added to
+ * {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "admission")
+public class AdmissionEndpoint {
+
+    private static final String LOGIN_VERIFICATION = "login-verification";
+
+    private final AdmissionControl admissionControl;
+    private final DownstreamLimits downstreamLimits;
+    private final AuthService authService;
+
+    public AdmissionEndpoint(AdmissionControl admissionControl, DownstreamLimits downstreamLimits, AuthService authService) {
+        this.admissionControl = admissionControl;
+        this.downstreamLimits = downstreamLimits;
+        this.authService = authService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>(admissionControl.status());
+        Map<String, Object> bulkheads = new LinkedHashMap<>();
+        for (Bulkhead bulkhead : downstreamLimits.all()) {
+            bulkheads.put(bulkhead.getName(), Map.of("limit", bulkhead.getLimit(), "available", bulkhead.getAvailablePermits()));
+        }
+        bulkheads.put(LOGIN_VERIFICATION, Map.of("limit", authService.getVerificationThreads()));
+        status.put("bulkheads", bulkheads);
+        return status;
+    }
+
+    @WriteOperation
+    public Map<String, Object> update(@Selector String name, @Nullable Double rate,
+                                      @Nullable Integer burst, @Nullable Integer limit) {
+        for (AdmissionControl.Route route : AdmissionControl.Route.values()) {
+            for (AdmissionControl.Scope scope : AdmissionControl.Scope.values()) {
+                if (name.equals(route.getTag() + "." + scope.getTag())) {
+                    TokenBucket.Rate current = admissionControl.getRate(route, scope);
+                    admissionControl.setRate(route, scope, new TokenBucket.Rate(
+                            rate != null ? rate : current.perSecond(),
+                            burst != null ? burst : current.burst()));
+                    return status();
+                }
+            }
+        }
+        if (limit == null) {
+            throw new IllegalArgumentException("A limit is required for " + name);
+        }
+        if (LOGIN_VERIFICATION.equals(name)) {
+            authService.setVerificationThreads(limit);
+            return status();
+        }
+        Bulkhead bulkhead = downstreamLimits.all().stream()
+                .filter(b -> b.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown limit: " + name));
+        bulkhead.setLimit(limit);
+        return status();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.openfiremessaging.limits;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link AdmissionControl} to one route before the request body is read (multipart
+ * requests included, as they are resolved lazily), and
+ * turns rejected requests away with 429 and a {@code Retry-After} in whole seconds.
+ */
+public class AdmissionInterceptor implements HandlerInterceptor {
+
+    private final AdmissionControl admissionControl;
+    private final AdmissionControl.Route route;
+
+    public AdmissionInterceptor(AdmissionControl admissionControl, AdmissionControl.Route route) {
+        this.admissionControl = admissionControl;
+        this.route = route;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        long waitNanos = admissionControl.admit(route, callerOf(request));
+        if (waitNanos == 0) {
+            return true;
+        }
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write("Too many " + route.getTag() + " requests, retry after " + retryAfterSeconds + "s");
+        return false;
+    }
+
+    private static String callerOf(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return authentication.getName();
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.openfiremessaging.limits;
+
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many callers may use a downstream resource at once. With virtual threads
+ * the number of request threads is no longer a natural limit, so every blocking call
+ * into Openfire, the database or the attachment disks goes through one of these.
+ *
+ * A caller serving an HTTP request waits at most {@code requestWaitMs} for a permit, so
+ * a saturated downstream turns clients away at once (429, see
+ * {@code OverloadExceptionHandler}) instead of tying up request threads; background work
+ * such as the send pipeline and the cold tier mover waits up to {@code maxWaitMs}.
+ *
+ * The limit can be changed at runtime. Lowering it below the number of calls in flight
+ * lets those finish; new callers wait until the count has dropped under the new limit.
+ */
+public class Bulkhead {
+
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E, InterruptedException;
+    }
+
+    @FunctionalInterface
+    public interface Task<E extends Exception> {
+        void run() throws E, InterruptedException;
+    }
+
+    private final String name;
+    private final ResizableSemaphore permits;
+    private final long maxWaitMs;
+    private final long requestWaitMs;
+    private int limit;
+
+    public Bulkhead(String name, int limit, long maxWaitMs, long requestWaitMs) {
+        this.name = name;
+        this.permits = new ResizableSemaphore(limit);
+        this.maxWaitMs = maxWaitMs;
+        this.requestWaitMs = requestWaitMs;
+        this.limit = limit;
+    }
+
+    /**
+     * Runs the call while holding a permit, waiting up to the configured time for one.
+     *
+     * @throws RejectedExecutionException if no permit became free in time
+     */
+    public <T, E extends Exception> T call(Call<T, E> call) throws E, InterruptedException {
+        long waitMs = RequestContextHolder.getRequestAttributes() != null ? requestWaitMs : maxWaitMs;
+        if (!permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+            throw new RejectedExecutionException(name + " is saturated");
+        }
+        try {
+            return call.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public <E extends Exception> void run(Task<E> task) throws E, InterruptedException {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public synchronized void setLimit(int newLimit) {
+        if (newLimit < 1) {
+            throw new IllegalArgumentException("A bulkhead limit must be at least 1");
+        }
+        if (newLimit > limit) {
+            permits.release(newLimit - limit);
+        } else if (newLimit < limit) {
+            permits.reducePermits(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
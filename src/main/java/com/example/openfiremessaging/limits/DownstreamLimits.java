@@ -0,0 +1,63 @@
+package com.example.openfiremessaging.limits;
+
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * The bulkheads in front of each blocking downstream: stanza sends on the pooled XMPP
+ * connections, attachment disk I/O, and database work (sized to the JDBC pool, so
+ * callers queue here instead of timing out inside Hikari). Conversation exports hold a
+ * database connection for as long as they stream, so they get a small bulkhead of their
+ * own on top of the JDBC one.
+ */
+@Component
+public class DownstreamLimits {
+
+    private final Bulkhead xmpp;
+    private final Bulkhead attachmentIo;
+    private final Bulkhead jdbc;
+    private final Bulkhead export;
+
+    public DownstreamLimits(MessagingMetrics messagingMetrics,
+                            @Value("${messaging.limits.xmpp:64}") int xmppLimit,
+                            @Value("${messaging.limits.attachment-io:32}") int attachmentIoLimit,
+                            @Value("${messaging.limits.jdbc:${spring.datasource.hikari.maximum-pool-size:10}}") int jdbcLimit,
+                            @Value("${messaging.limits.export:2}") int exportLimit,
+                            @Value("${messaging.limits.max-wait-ms:5000}") long maxWaitMs,
+                            @Value("${messaging.limits.request-wait-ms:50}") long requestWaitMs) {
+        this.xmpp = new Bulkhead("xmpp", xmppLimit, maxWaitMs, requestWaitMs);
+        this.attachmentIo = new Bulkhead("attachment-io", attachmentIoLimit, maxWaitMs, requestWaitMs);
+        this.jdbc = new Bulkhead("jdbc", jdbcLimit, maxWaitMs, requestWaitMs);
+        // An export waits no time: a queued one would only time out behind a long-running one.
+        this.export = new Bulkhead("export", exportLimit, 0, 0);
+        for (Bulkhead bulkhead : all()) {
+            messagingMetrics.gauge("messaging.limits." + bulkhead.getName() + ".available",
+                    "Free permits of the " + bulkhead.getName() + " bulkhead", bulkhead, Bulkhead::getAvailablePermits);
+            messagingMetrics.gauge("messaging.limits." + bulkhead.getName() + ".limit",
+                    "Configured limit of the " + bulkhead.getName() + " bulkhead", bulkhead, Bulkhead::getLimit);
+        }
+    }
+
+    public List<Bulkhead> all() {
+        return List.of(xmpp, attachmentIo, jdbc, export);
+    }
+
+    public Bulkhead xmpp() {
+        return xmpp;
+    }
+
+    public Bulkhead attachmentIo() {
+        return attachmentIo;
+    }
+
+    public Bulkhead jdbc() {
+        return jdbc;
+    }
+
+    public Bulkhead export() {
+        return export;
+    }
+}
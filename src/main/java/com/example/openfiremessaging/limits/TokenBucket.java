@@ -0,0 +1,90 @@
+package com.example.openfiremessaging.limits;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, kept as a single "theoretical arrival time" (the generic cell
+ * rate algorithm): taking a token pushes that time one emission interval further, and a
+ * token is available while it stays within {@code burst} intervals of now. One CAS per
+ * admitted request, no refill thread.
+ *
+ * The rate is passed in on every call, so buckets sharing a {@link Rate} pick up a
+ * change at runtime immediately.
+ */
+public class TokenBucket {
+
+    /**
+     * Tokens per second and bucket size. A non-positive rate means unlimited.
+     */
+    public record Rate(double perSecond, int burst) {
+
+        public Rate {
+            if (burst < 1) {
+                throw new IllegalArgumentException("A burst must be at least 1");
+            }
+        }
+
+        public boolean isUnlimited() {
+            return perSecond <= 0;
+        }
+
+        long intervalNanos() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        }
+    }
+
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket() {
+        // Starts full.
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until one will be
+     */
+    public long tryAcquire(Rate rate) {
+        if (rate.isUnlimited()) {
+            return 0;
+        }
+        long interval = rate.intervalNanos();
+        long tolerance = interval * rate.burst();
+        while (true) {
+            long now = System.nanoTime();
+            long arrival = theoreticalArrival.get();
+            if (arrival - now > tolerance) {
+                // Only after the rate was raised: start over from empty at the new rate.
+                theoreticalArrival.compareAndSet(arrival, now + tolerance);
+                continue;
+            }
+            long next = Math.max(arrival, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire} for a request that was then
+     * turned away elsewhere.
+     */
+    public void refund(Rate rate) {
+        if (!rate.isUnlimited()) {
+            theoreticalArrival.addAndGet(-rate.intervalNanos());
+        }
+    }
+
+    /**
+     * Whether the bucket has refilled completely, so dropping it loses nothing.
+     */
+    public boolean isFull() {
+        return theoreticalArrival.get() - System.nanoTime() <= 0;
+    }
+}
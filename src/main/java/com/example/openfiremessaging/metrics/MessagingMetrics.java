@@ -0,0 +1,338 @@
+package com.example.openfiremessaging.metrics;
+
+import com.example.openfiremessaging.limits.AdmissionControl;
+import com.example.openfiremessaging.service.AttachmentStorage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Timers and counters for the send, login, token and history flows.
+ *
+ * Every meter is registered up front and kept in arrays indexed by message type, stage
+ * or size bucket, so recording is an array lookup plus {@code record(nanos)}: no tag
+ * lists, no meter lookups and no {@code Timer.Sample} objects on the request path.
+ * Callers take {@code System.nanoTime()} themselves and pass the elapsed time.
+ */
+@Component
+public class MessagingMetrics {
+
+    /**
+     * Stages of sending one message, in the order they run.
+     */
+    public enum Stage {
+        XMPP_SEND("xmpp_send"),
+        ATTACHMENT_STORE("attachment_store"),
+        ARCHIVE("archive");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum AuthOutcome {
+        CACHED("cached"),
+        VERIFIED("verified"),
+        DENIED("denied"),
+        BUSY("busy");
+
+        private final String tag;
+
+        AuthOutcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /** Codes returned by {@code MessageService.determineMessageType}. */
+    private static final int MESSAGE_TYPES = 8;
+    private static final String[] SIZE_BUCKETS = {"empty", "lt_64k", "lt_1m", "lt_16m", "ge_16m"};
+
+    private final MeterRegistry registry;
+
+    private final Timer[] send = new Timer[MESSAGE_TYPES];
+    private final Timer[][] stages = new Timer[Stage.values().length][MESSAGE_TYPES];
+    private final Counter[] stageFailures = new Counter[Stage.values().length];
+    private final Timer[][] attachmentStores = new Timer[AttachmentStorage.Kind.values().length][SIZE_BUCKETS.length];
+    private final DistributionSummary[] attachmentBytes = new DistributionSummary[AttachmentStorage.Kind.values().length];
+    private final Counter[] attachmentDeduplicated = new Counter[AttachmentStorage.Kind.values().length];
+    private final Counter[] attachmentCompressionSaved = new Counter[AttachmentStorage.Kind.values().length];
+    private final Timer archiveFlush;
+    private final DistributionSummary archiveBatchRows;
+    private final Timer xmppConnect;
+    private final Counter xmppConnectFailures;
+    private final Timer[] authentications = new Timer[AuthOutcome.values().length];
+    private final Timer jwtCacheHit;
+    private final Timer jwtVerified;
+    private final Counter jwtRejected;
+    private final Timer historyByKey;
+    private final Timer historyByParticipants;
+    private final DistributionSummary historyRows;
+    private final Counter historyTailHits;
+    private final Counter historyTailMisses;
+    private final Timer search;
+    private final Counter searchIndexOverflows;
+    private final Counter coldTierMoved;
+    private final Counter coldSegmentReads;
+    private final DistributionSummary broadcastRecipients;
+    private final Timer export;
+    private final Counter exportRows;
+    private final Counter[][] admissionRejections =
+            new Counter[AdmissionControl.Route.values().length][AdmissionControl.Scope.values().length];
+
+    public MessagingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        for (int type = 0; type < MESSAGE_TYPES; type++) {
+            String messageType = String.valueOf(type);
+            send[type] = timer("messaging.send", "Time to send and archive one message")
+                    .tag("type", messageType)
+                    .register(registry);
+            for (Stage stage : Stage.values()) {
+                stages[stage.ordinal()][type] = timer("messaging.send.stage", "Time spent in one stage of a send")
+                        .tag("stage", stage.tag)
+                        .tag("type", messageType)
+                        .register(registry);
+            }
+        }
+        for (Stage stage : Stage.values()) {
+            stageFailures[stage.ordinal()] = Counter.builder("messaging.send.failures")
+                    .description("Sends that failed, by the stage that failed")
+                    .tag("stage", stage.tag)
+                    .register(registry);
+        }
+
+        for (AttachmentStorage.Kind kind : AttachmentStorage.Kind.values()) {
+            String kindTag = kind.name().toLowerCase();
+            for (int bucket = 0; bucket < SIZE_BUCKETS.length; bucket++) {
+                attachmentStores[kind.ordinal()][bucket] = timer("messaging.attachment.store",
+                        "Time to decode, hash and write one attachment")
+                        .tag("kind", kindTag)
+                        .tag("size", SIZE_BUCKETS[bucket])
+                        .register(registry);
+            }
+            attachmentBytes[kind.ordinal()] = DistributionSummary.builder("messaging.attachment.size")
+                    .description("Size of stored attachments")
+                    .baseUnit("bytes")
+                    .tag("kind", kindTag)
+                    .serviceLevelObjectives(64 * 1024, 1024 * 1024, 16 * 1024 * 1024, 128 * 1024 * 1024)
+                    .register(registry);
+            attachmentDeduplicated[kind.ordinal()] = Counter.builder("messaging.attachment.deduplicated")
+                    .description("Attachments that matched an existing blob and were not written again")
+                    .tag("kind", kindTag)
+                    .register(registry);
+            attachmentCompressionSaved[kind.ordinal()] = Counter.builder("messaging.attachment.compression.saved")
+                    .description("Disk space saved by storing attachments gzip-compressed")
+                    .baseUnit("bytes")
+                    .tag("kind", kindTag)
+                    .register(registry);
+        }
+
+        archiveFlush = timer("messaging.archive.flush", "Time to insert and commit one archive batch").register(registry);
+        archiveBatchRows = DistributionSummary.builder("messaging.archive.batch.rows")
+                .description("Rows per archive batch")
+                .serviceLevelObjectives(1, 10, 50, 100, 200)
+                .register(registry);
+        xmppConnect = timer("messaging.xmpp.connect", "Time to connect and log in a pooled XMPP connection")
+                .register(registry);
+        xmppConnectFailures = Counter.builder("messaging.xmpp.connect.failures")
+                .description("Pooled XMPP connections that failed to connect or log in")
+                .register(registry);
+
+        for (AuthOutcome outcome : AuthOutcome.values()) {
+            authentications[outcome.ordinal()] = timer("messaging.auth.authenticate", "Time to check a login")
+                    .tag("outcome", outcome.tag)
+                    .register(registry);
+        }
+        jwtCacheHit = timer("messaging.jwt.verify", "Time to verify a bearer token")
+                .tag("cache", "hit")
+                .register(registry);
+        jwtVerified = timer("messaging.jwt.verify", "Time to verify a bearer token")
+                .tag("cache", "miss")
+                .register(registry);
+        jwtRejected = Counter.builder("messaging.jwt.rejected")
+                .description("Bearer tokens that were malformed, forged or expired")
+                .register(registry);
+
+        historyByKey = timer("messaging.history", "Time to load one page of history")
+                .tag("query", "conversation_key")
+                .register(registry);
+        historyByParticipants = timer("messaging.history", "Time to load one page of history")
+                .tag("query", "participants")
+                .register(registry);
+        historyRows = DistributionSummary.builder("messaging.history.rows")
+                .description("Messages returned per history page")
+                .serviceLevelObjectives(1, 10, 50, 100, 200)
+                .register(registry);
+        historyTailHits = Counter.builder("messaging.history.tail_cache")
+                .description("Latest-page history reads, by whether the conversation tail was cached")
+                .tag("result", "hit")
+                .register(registry);
+        historyTailMisses = Counter.builder("messaging.history.tail_cache")
+                .description("Latest-page history reads, by whether the conversation tail was cached")
+                .tag("result", "miss")
+                .register(registry);
+
+        search = timer("messaging.search", "Time to run one full-text search and build its snippets").register(registry);
+        searchIndexOverflows = Counter.builder("messaging.search.index.overflows")
+                .description("Archived messages that did not fit the indexing queue and were re-read from the archive")
+                .register(registry);
+
+        coldTierMoved = Counter.builder("messaging.cold_tier.moved")
+                .description("Archived messages moved from the archive table into cold segments")
+                .register(registry);
+        coldSegmentReads = Counter.builder("messaging.cold_tier.segment_reads")
+                .description("Cold segment chunks read and decompressed")
+                .register(registry);
+
+        broadcastRecipients = DistributionSummary.builder("messaging.broadcast.recipients")
+                .description("Recipients per broadcast")
+                .serviceLevelObjectives(10, 100, 500, 1000)
+                .register(registry);
+
+        export = timer("messaging.export", "Time to stream one whole conversation export").register(registry);
+        exportRows = Counter.builder("messaging.export.rows")
+                .description("Messages written by conversation exports")
+                .register(registry);
+
+        for (AdmissionControl.Route route : AdmissionControl.Route.values()) {
+            for (AdmissionControl.Scope scope : AdmissionControl.Scope.values()) {
+                admissionRejections[route.ordinal()][scope.ordinal()] = Counter.builder("messaging.admission.rejected")
+                        .description("Requests turned away with 429, by the rate limit that was exhausted")
+                        .tag("route", route.getTag())
+                        .tag("scope", scope.getTag())
+                        .register(registry);
+            }
+        }
+    }
+
+    public void recordSend(int messageType, long nanos) {
+        send[typeIndex(messageType)].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStage(Stage stage, int messageType, long nanos) {
+        stages[stage.ordinal()][typeIndex(messageType)].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFailure(Stage stage) {
+        stageFailures[stage.ordinal()].increment();
+    }
+
+    public void recordAttachmentStore(AttachmentStorage.Kind kind, long bytes, boolean deduplicated, long nanos) {
+        attachmentStores[kind.ordinal()][sizeBucket(bytes)].record(nanos, TimeUnit.NANOSECONDS);
+        attachmentBytes[kind.ordinal()].record(bytes);
+        if (deduplicated) {
+            attachmentDeduplicated[kind.ordinal()].increment();
+        }
+    }
+
+    public void recordAttachmentCompressed(AttachmentStorage.Kind kind, long originalBytes, long storedBytes) {
+        attachmentCompressionSaved[kind.ordinal()].increment(originalBytes - storedBytes);
+    }
+
+    public void recordArchiveFlush(int rows, long nanos) {
+        archiveFlush.record(nanos, TimeUnit.NANOSECONDS);
+        archiveBatchRows.record(rows);
+    }
+
+    public void recordXmppConnect(boolean success, long nanos) {
+        xmppConnect.record(nanos, TimeUnit.NANOSECONDS);
+        if (!success) {
+            xmppConnectFailures.increment();
+        }
+    }
+
+    public void recordAuthentication(AuthOutcome outcome, long nanos) {
+        authentications[outcome.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordJwtVerification(boolean cacheHit, boolean valid, long nanos) {
+        (cacheHit ? jwtCacheHit : jwtVerified).record(nanos, TimeUnit.NANOSECONDS);
+        if (!valid) {
+            jwtRejected.increment();
+        }
+    }
+
+    public void recordHistory(boolean byConversationKey, int rows, long nanos) {
+        (byConversationKey ? historyByKey : historyByParticipants).record(nanos, TimeUnit.NANOSECONDS);
+        historyRows.record(rows);
+    }
+
+    public void recordHistoryTailCache(boolean hit) {
+        (hit ? historyTailHits : historyTailMisses).increment();
+    }
+
+    public void recordSearch(long nanos) {
+        search.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSearchIndexOverflow() {
+        searchIndexOverflows.increment();
+    }
+
+    public void recordColdTierMove(int messages) {
+        coldTierMoved.increment(messages);
+    }
+
+    public void recordColdSegmentRead() {
+        coldSegmentReads.increment();
+    }
+
+    public void recordBroadcast(int recipients) {
+        broadcastRecipients.record(recipients);
+    }
+
+    public void recordExport(long rows, long nanos) {
+        export.record(nanos, TimeUnit.NANOSECONDS);
+        exportRows.increment(rows);
+    }
+
+    public void recordAdmissionRejected(AdmissionControl.Route route, AdmissionControl.Scope scope) {
+        admissionRejections[route.ordinal()][scope.ordinal()].increment();
+    }
+
+    /**
+     * Registers a gauge sampled from {@code target} at scrape time, e.g. a queue depth.
+     */
+    public <T> void gauge(String name, String description, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value)
+                .description(description)
+                .register(registry);
+    }
+
+    private static Timer.Builder timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(30));
+    }
+
+    private static int typeIndex(int messageType) {
+        return messageType >= 0 && messageType < MESSAGE_TYPES ? messageType : 0;
+    }
+
+    private static int sizeBucket(long bytes) {
+        if (bytes <= 0) {
+            return 0;
+        }
+        if (bytes < 64 * 1024) {
+            return 1;
+        }
+        if (bytes < 1024 * 1024) {
+            return 2;
+        }
+        if (bytes < 16 * 1024 * 1024) {
+            return 3;
+        }
+        return 4;
+    }
+}
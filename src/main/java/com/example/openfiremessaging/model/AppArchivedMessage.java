@@ -5,18 +5,28 @@ import lombok.Data;
 import java.time.Instant;
 
 @Entity
-@Table(name = "app_message_archive")
+@Table(name = "app_message_archive", indexes = {
+        @Index(name = "idx_archive_conversation_sent", columnList = "conversationKey, sentDate, id"),
+        // Serves the legacy two-way predicate until the conversation key backfill has finished.
+        @Index(name = "idx_archive_from_to_sent", columnList = "fromJid, toJid, sentDate, id")
+})
 @Data
 public class AppArchivedMessage {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
 
     private String fromJid;
 
     private String toJid;
 
+    /**
+     * {@link ConversationKeys#of} of the two participants, filled in before every insert.
+     */
+    @Column(length = ConversationKeys.LENGTH)
+    private String conversationKey;
+
     private Instant sentDate;
 
     private String body;
@@ -29,5 +39,12 @@ public class AppArchivedMessage {
     private String fileAdd;
 
     private String fileName;
+
+    @PrePersist
+    void assignConversationKey() {
+        if (conversationKey == null && fromJid != null && toJid != null) {
+            conversationKey = ConversationKeys.of(fromJid, toJid);
+        }
+    }
 }
 
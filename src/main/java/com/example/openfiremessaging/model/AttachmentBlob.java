@@ -0,0 +1,32 @@
+package com.example.openfiremessaging.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.Instant;
+
+/**
+ * One stored attachment file, keyed by the SHA-256 of its content and shared by every
+ * archived message that references the same bytes. A blob stored gzip-compressed has a
+ * path ending in {@code .gz}; its size is always that of the original content.
+ */
+@Entity
+@Table(name = "app_attachment_blob",
+        indexes = @Index(name = "idx_attachment_blob_gc", columnList = "refCount, updatedAt"))
+@Data
+public class AttachmentBlob {
+
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(length = 1024, nullable = false)
+    private String path;
+
+    private long size;
+
+    private long refCount;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+}
@@ -0,0 +1,24 @@
+package com.example.openfiremessaging.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * Where a message moved to the cold tier lives: the {@link ColdSegment} holding it, and
+ * its conversation, so a lookup by id can check the caller before any chunk is read.
+ * Written by the mover in the same transaction as the segment row.
+ */
+@Entity
+@Table(name = "app_cold_message")
+@Data
+public class ColdMessage {
+
+    @Id
+    private Long messageId;
+
+    @Column(nullable = false)
+    private Long segmentId;
+
+    @Column(length = ConversationKeys.LENGTH, nullable = false)
+    private String conversationKey;
+}
@@ -0,0 +1,49 @@
+package com.example.openfiremessaging.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * One chunk of a conversation moved out of {@code app_message_archive}: a gzip member of
+ * newline-delimited JSON messages, in {@code (sentDate, id)} order, at {@code byteOffset}
+ * of an append-only segment file under the cold tier directory. The first and last
+ * message bound the chunk in history order; single messages are found through
+ * {@link ColdMessage}.
+ */
+@Entity
+@Table(name = "app_cold_segment", indexes =
+        @Index(name = "idx_cold_segment_conversation", columnList = "conversationKey, lastSentDate, lastMessageId"))
+@Data
+public class ColdSegment {
+
+    @Id
+    @TimeOrderedId
+    private Long id;
+
+    @Column(length = ConversationKeys.LENGTH, nullable = false)
+    private String conversationKey;
+
+    /**
+     * Relative to the cold tier directory.
+     */
+    @Column(nullable = false)
+    private String fileName;
+
+    private long byteOffset;
+
+    private int byteLength;
+
+    private int messageCount;
+
+    private Instant firstSentDate;
+
+    private Long firstMessageId;
+
+    private Instant lastSentDate;
+
+    private Long lastMessageId;
+
+    private Instant createdAt;
+}
@@ -0,0 +1,38 @@
+package com.example.openfiremessaging.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Derives the canonical key of a one-to-one conversation: the two JIDs sorted, joined
+ * and hashed to a fixed 32 hex characters (128 bits of SHA-256). Both directions of a
+ * chat map to the same key, so a conversation is a single index range.
+ */
+public final class ConversationKeys {
+
+    public static final int LENGTH = 32;
+
+    private ConversationKeys() {
+    }
+
+    public static String of(String jidA, String jidB) {
+        String first = jidA.compareTo(jidB) <= 0 ? jidA : jidB;
+        String second = first == jidA ? jidB : jidA;
+        MessageDigest digest = sha256();
+        digest.update(first.getBytes(StandardCharsets.UTF_8));
+        // A newline can never be part of a JID, so the pair encoding is unambiguous.
+        digest.update((byte) '\n');
+        digest.update(second.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest(), 0, LENGTH / 2);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.openfiremessaging.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * One user's view of one conversation: its latest message and how many messages from
+ * the peer the user has not read yet. Kept up to date by the archive writer in the same
+ * transaction as the archive rows, so the inbox is a single index range per user.
+ */
+@Entity
+@Table(name = "app_conversation_summary",
+        indexes = {
+                @Index(name = "idx_summary_owner_last", columnList = "ownerJid, lastMessageId"),
+                @Index(name = "idx_summary_conversation", columnList = "conversationKey")
+        })
+@IdClass(ConversationSummary.Key.class)
+@Data
+public class ConversationSummary {
+
+    public static final int PREVIEW_LENGTH = 255;
+
+    @Id
+    private String ownerJid;
+
+    @Id
+    private String peerJid;
+
+    @Column(length = ConversationKeys.LENGTH)
+    private String conversationKey;
+
+    private Long lastMessageId;
+
+    private String lastFromJid;
+
+    @Column(length = PREVIEW_LENGTH)
+    private String lastBody;
+
+    private Integer lastMessageType;
+
+    private Instant lastSentDate;
+
+    private long unreadCount;
+
+    /**
+     * Guards against the archive writer and a mark-read overwriting each other.
+     */
+    @Version
+    @JsonIgnore
+    private long version;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String ownerJid;
+        private String peerJid;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.openfiremessaging.model;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an id that is generated in the application by {@link TimeOrderedIdGenerator}
+ * rather than by the database, so Hibernate can batch the inserts.
+ */
+@IdGeneratorType(TimeOrderedIdGenerator.class)
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TimeOrderedId {
+}
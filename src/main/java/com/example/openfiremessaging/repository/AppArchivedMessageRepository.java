@@ -1,21 +1,121 @@
 package com.example.openfiremessaging.repository;
 
 import com.example.openfiremessaging.model.AppArchivedMessage;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface AppArchivedMessageRepository extends JpaRepository<AppArchivedMessage, Long> {
 
+    // Keyset queries select ids only, so they are answered from the (conversationKey, sentDate, id)
+    // index alone as a single range scan; the rows for the page are then loaded by primary key.
 
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE m.conversationKey = :key " +
+            "ORDER BY m.sentDate DESC, m.id DESC")
+    List<Long> findLatestIds(@Param("key") String conversationKey, Pageable pageable);
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE m.conversationKey = :key AND " +
+            "(m.sentDate < :sentDate OR (m.sentDate = :sentDate AND m.id < :id)) " +
+            "ORDER BY m.sentDate DESC, m.id DESC")
+    List<Long> findIdsBefore(@Param("key") String conversationKey,
+                             @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE m.conversationKey = :key AND " +
+            "(m.sentDate > :sentDate OR (m.sentDate = :sentDate AND m.id > :id)) " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    List<Long> findIdsAfter(@Param("key") String conversationKey,
+                            @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    // Legacy two-way predicate, used only while rows without a conversation key remain.
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE " +
+            "((m.fromJid = :jid1 AND m.toJid = :jid2) OR " +
+            "(m.fromJid = :jid2 AND m.toJid = :jid1)) " +
+            "ORDER BY m.sentDate DESC, m.id DESC")
+    List<Long> findLatestIdsByParticipants(@Param("jid1") String jid1, @Param("jid2") String jid2, Pageable pageable);
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE " +
+            "((m.fromJid = :jid1 AND m.toJid = :jid2) OR " +
+            "(m.fromJid = :jid2 AND m.toJid = :jid1)) AND " +
+            "(m.sentDate < :sentDate OR (m.sentDate = :sentDate AND m.id < :id)) " +
+            "ORDER BY m.sentDate DESC, m.id DESC")
+    List<Long> findIdsBeforeByParticipants(@Param("jid1") String jid1, @Param("jid2") String jid2,
+                                           @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE " +
+            "((m.fromJid = :jid1 AND m.toJid = :jid2) OR " +
+            "(m.fromJid = :jid2 AND m.toJid = :jid1)) AND " +
+            "(m.sentDate > :sentDate OR (m.sentDate = :sentDate AND m.id > :id)) " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    List<Long> findIdsAfterByParticipants(@Param("jid1") String jid1, @Param("jid2") String jid2,
+                                          @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT m.id FROM AppArchivedMessage m WHERE m.conversationKey = :key AND m.sentDate < :cutoff " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    List<Long> findOldestIdsBefore(@Param("key") String conversationKey, @Param("cutoff") Instant cutoff, Pageable pageable);
+
+    // Whole-conversation streams for exports: forward-only, read-only, fetched from the driver
+    // in batches. They must be consumed inside a transaction and closed.
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT m FROM AppArchivedMessage m WHERE m.conversationKey = :key " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    Stream<AppArchivedMessage> streamConversation(@Param("key") String conversationKey);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT m FROM AppArchivedMessage m WHERE m.conversationKey = :key AND " +
+            "(m.sentDate > :sentDate OR (m.sentDate = :sentDate AND m.id > :id)) " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    Stream<AppArchivedMessage> streamConversationAfter(@Param("key") String conversationKey,
+                                                       @Param("sentDate") Instant sentDate, @Param("id") long id);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
     @Query("SELECT m FROM AppArchivedMessage m WHERE " +
-            "(m.fromJid = :jid1 AND m.toJid = :jid2) OR " +
-            "(m.fromJid = :jid2 AND m.toJid = :jid1) " +
-            "ORDER BY m.sentDate ASC")
-    List<AppArchivedMessage> findConversation(@Param("jid1") String jid1, @Param("jid2") String jid2);
-}
+            "((m.fromJid = :jid1 AND m.toJid = :jid2) OR " +
+            "(m.fromJid = :jid2 AND m.toJid = :jid1)) " +
+            "ORDER BY m.sentDate ASC, m.id ASC")
+    Stream<AppArchivedMessage> streamByParticipants(@Param("jid1") String jid1, @Param("jid2") String jid2);
+
+    @Query("SELECT m FROM AppArchivedMessage m WHERE m.id IN :ids ORDER BY m.sentDate ASC, m.id ASC")
+    List<AppArchivedMessage> findAllByIdOrdered(@Param("ids") List<Long> ids);
+
+    boolean existsByConversationKeyIsNull();
+
+    @Query("SELECT m.id, m.fromJid, m.toJid FROM AppArchivedMessage m " +
+            "WHERE m.id > :afterId AND m.conversationKey IS NULL ORDER BY m.id ASC")
+    List<Object[]> findMissingConversationKey(@Param("afterId") long afterId, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE AppArchivedMessage m SET m.conversationKey = :key WHERE m.id IN :ids AND m.conversationKey IS NULL")
+    int assignConversationKey(@Param("key") String conversationKey, @Param("ids") List<Long> ids);
 
+    @Query("SELECT COUNT(m) FROM AppArchivedMessage m WHERE m.conversationKey = :key AND m.fromJid = :fromJid AND m.id > :afterId")
+    long countFromAfter(@Param("key") String conversationKey, @Param("fromJid") String fromJid, @Param("afterId") long afterId);
+
+    @Query("SELECT m FROM AppArchivedMessage m WHERE m.id > :afterId AND m.id <= :upToId ORDER BY m.id ASC")
+    List<AppArchivedMessage> findRange(@Param("afterId") long afterId, @Param("upToId") long upToId, Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM AppArchivedMessage m WHERE m.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    @Query("SELECT MAX(m.id) FROM AppArchivedMessage m")
+    Long findMaxId();
+
+    @Query("SELECT MIN(m.id) FROM AppArchivedMessage m")
+    Long findMinId();
+}
@@ -0,0 +1,35 @@
+package com.example.openfiremessaging.repository;
+
+import com.example.openfiremessaging.model.AttachmentBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface AttachmentBlobRepository extends JpaRepository<AttachmentBlob, String> {
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE AttachmentBlob b SET b.refCount = b.refCount + :delta, b.updatedAt = :now WHERE b.hash = :hash")
+    int adjustRefCount(@Param("hash") String hash, @Param("delta") long delta, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE AttachmentBlob b SET b.path = :path WHERE b.hash = :hash")
+    int updatePath(@Param("hash") String hash, @Param("path") String path);
+
+    @Query("SELECT b.hash FROM AttachmentBlob b WHERE b.refCount <= 0 AND b.updatedAt < :cutoff")
+    List<String> findUnreferencedSince(@Param("cutoff") Instant cutoff, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM AttachmentBlob b WHERE b.hash = :hash AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
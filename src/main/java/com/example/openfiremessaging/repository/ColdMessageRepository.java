@@ -0,0 +1,23 @@
+package com.example.openfiremessaging.repository;
+
+import com.example.openfiremessaging.model.ColdMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ColdMessageRepository extends JpaRepository<ColdMessage, Long> {
+
+    /**
+     * Records the archive rows {@code ids} as moved into {@code segmentId}, in one statement;
+     * must run before they are deleted.
+     */
+    @Modifying
+    @Query("INSERT INTO ColdMessage (messageId, segmentId, conversationKey) " +
+            "SELECT m.id, :segmentId, m.conversationKey FROM AppArchivedMessage m WHERE m.id IN :ids")
+    int insertLocations(@Param("segmentId") long segmentId, @Param("ids") List<Long> ids);
+}
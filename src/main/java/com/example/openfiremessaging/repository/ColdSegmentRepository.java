@@ -0,0 +1,37 @@
+package com.example.openfiremessaging.repository;
+
+import com.example.openfiremessaging.model.ColdSegment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ColdSegmentRepository extends JpaRepository<ColdSegment, Long> {
+
+    // The chunks of one conversation never overlap in history order, so walking them by their
+    // last message, newest first, or by their first message, oldest first, pages through them.
+
+    @Query("SELECT s FROM ColdSegment s WHERE s.conversationKey = :key " +
+            "ORDER BY s.lastSentDate DESC, s.lastMessageId DESC")
+    List<ColdSegment> findLatest(@Param("key") String conversationKey, Pageable pageable);
+
+    @Query("SELECT s FROM ColdSegment s WHERE s.conversationKey = :key AND " +
+            "(s.firstSentDate < :sentDate OR (s.firstSentDate = :sentDate AND s.firstMessageId < :id)) " +
+            "ORDER BY s.lastSentDate DESC, s.lastMessageId DESC")
+    List<ColdSegment> findBefore(@Param("key") String conversationKey,
+                                 @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT s FROM ColdSegment s WHERE s.conversationKey = :key AND " +
+            "(s.lastSentDate > :sentDate OR (s.lastSentDate = :sentDate AND s.lastMessageId > :id)) " +
+            "ORDER BY s.lastSentDate ASC, s.lastMessageId ASC")
+    List<ColdSegment> findAfter(@Param("key") String conversationKey,
+                                @Param("sentDate") Instant sentDate, @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT s FROM ColdSegment s WHERE s.id > :afterId ORDER BY s.id ASC")
+    List<ColdSegment> findAfterId(@Param("afterId") long afterId, Pageable pageable);
+}
@@ -0,0 +1,51 @@
+package com.example.openfiremessaging.repository;
+
+import com.example.openfiremessaging.model.ConversationSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, ConversationSummary.Key> {
+
+    // Message ids are time ordered, so the latest message id doubles as the inbox sort key
+    // and keyset cursor, answered from the (ownerJid, lastMessageId) index.
+
+    @Query("SELECT s FROM ConversationSummary s WHERE s.ownerJid = :owner ORDER BY s.lastMessageId DESC")
+    List<ConversationSummary> findLatest(@Param("owner") String ownerJid, Pageable pageable);
+
+    @Query("SELECT s FROM ConversationSummary s WHERE s.ownerJid = :owner AND s.lastMessageId < :before " +
+            "ORDER BY s.lastMessageId DESC")
+    List<ConversationSummary> findBefore(@Param("owner") String ownerJid, @Param("before") long beforeMessageId,
+                                         Pageable pageable);
+
+    /**
+     * Both participants' summaries of each conversation, loaded in one query per archive batch.
+     */
+    List<ConversationSummary> findByConversationKeyIn(Collection<String> conversationKeys);
+
+    boolean existsByOwnerJidAndConversationKey(String ownerJid, String conversationKey);
+
+    /**
+     * Every conversation once, keyset paged; both participants' summaries share the key.
+     */
+    @Query("SELECT DISTINCT s.conversationKey FROM ConversationSummary s WHERE s.conversationKey > :after " +
+            "ORDER BY s.conversationKey ASC")
+    List<String> findConversationKeysAfter(@Param("after") String afterKey, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE ConversationSummary s SET s.unreadCount = 0, s.version = s.version + 1 " +
+            "WHERE s.ownerJid = :owner AND s.peerJid = :peer AND s.lastMessageId <= :upTo")
+    int markRead(@Param("owner") String ownerJid, @Param("peer") String peerJid, @Param("upTo") long upToMessageId);
+
+    @Modifying
+    @Query("UPDATE ConversationSummary s SET s.unreadCount = :unread, s.version = s.version + 1 " +
+            "WHERE s.ownerJid = :owner AND s.peerJid = :peer")
+    int setUnread(@Param("owner") String ownerJid, @Param("peer") String peerJid, @Param("unread") long unread);
+}
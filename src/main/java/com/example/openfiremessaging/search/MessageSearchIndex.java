@@ -0,0 +1,608 @@
+package com.example.openfiremessaging.search;
+
+import com.example.openfiremessaging.dto.MessageSearchHit;
+import com.example.openfiremessaging.dto.MessageSearchPage;
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ColdSegment;
+import com.example.openfiremessaging.model.TimeOrderedIdGenerator;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.service.ColdArchive;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embedded Lucene index over archived message bodies, for full-text search within a
+ * user's own conversations.
+ *
+ * Every message is indexed once per participant, under that participant as owner, and
+ * the owners are spread over a fixed number of shards by hash; a search only ever opens
+ * the searcher of the caller's shard and filters on the owner, so it never touches, or
+ * scores against, anyone else's messages.
+ *
+ * The send path only offers committed rows to a bounded queue. One indexer thread
+ * drains it, makes new documents visible every {@code refresh-ms} and commits every
+ * {@code commit-ms}, recording the highest indexed id in the commit. When the queue is
+ * full the row is dropped and the indexer re-reads the archive from the lowest dropped
+ * id instead, and after a restart it re-reads everything since a minute before the last
+ * committed id; documents are keyed by owner and message id, so reading a row twice is
+ * harmless. Rows committed by other instances never reach the queue, so every
+ * {@code tail-ms} the indexer also re-reads the archive from the catch-up window before
+ * the highest indexed id. An empty index over a non-empty archive is rebuilt in the background, and
+ * {@link #rebuild()} re-indexes the whole archive, cold tier included, with several
+ * threads on demand.
+ */
+@Slf4j
+@Component
+public class MessageSearchIndex {
+
+    private static final String KEY = "key";
+    private static final String OWNER = "owner";
+    private static final String PEER = "peer";
+    private static final String FROM = "from";
+    private static final String ID = "id";
+    private static final String SENT = "sent";
+    private static final String BODY = "body";
+    private static final Set<String> HIT_FIELDS = Set.of(PEER, FROM, ID, SENT);
+    private static final String INDEXED_UP_TO = "indexedUpTo";
+    private static final String SHARD_COUNT = "shards";
+    private static final long NOTHING_DROPPED = Long.MAX_VALUE;
+
+    // Offsets in the postings let the highlighter find passages without re-analyzing bodies.
+    private static final FieldType BODY_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        BODY_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        BODY_TYPE.freeze();
+    }
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final ColdArchive coldArchive;
+    private final DownstreamLimits downstreamLimits;
+    private final MessagingMetrics messagingMetrics;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final Path indexDir;
+    private final Shard[] shards;
+    private final BlockingQueue<AppArchivedMessage> queue;
+    private final long refreshMs;
+    private final long commitMs;
+    private final Duration catchUpWindow;
+    private final long tailMs;
+    private final int batchSize;
+    private final int rebuildThreads;
+    private final int defaultLimit;
+    private final int maxLimit;
+    private final int maxResults;
+    private final AtomicLong droppedFromId = new AtomicLong(NOTHING_DROPPED);
+    private final AtomicLong highestIndexedId = new AtomicLong();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile boolean needsRebuild;
+    private volatile boolean running;
+    private volatile Instant lastRebuildAt;
+    private volatile Duration lastRebuildTook;
+    private Thread indexer;
+
+    public MessageSearchIndex(AppArchivedMessageRepository appArchivedMessageRepository,
+                              ColdArchive coldArchive,
+                              DownstreamLimits downstreamLimits,
+                              MessagingMetrics messagingMetrics,
+                              @Value("${messaging.search.index-dir:./search-index}") String indexDir,
+                              @Value("${messaging.search.shards:8}") int shardCount,
+                              @Value("${messaging.search.queue-capacity:10000}") int queueCapacity,
+                              @Value("${messaging.search.refresh-ms:1000}") long refreshMs,
+                              @Value("${messaging.search.commit-ms:30000}") long commitMs,
+                              @Value("${messaging.search.catch-up-window-ms:60000}") long catchUpWindowMs,
+                              @Value("${messaging.search.tail-ms:10000}") long tailMs,
+                              @Value("${messaging.search.batch-size:500}") int batchSize,
+                              @Value("${messaging.search.rebuild-threads:4}") int rebuildThreads,
+                              @Value("${messaging.search.default-limit:20}") int defaultLimit,
+                              @Value("${messaging.search.max-limit:100}") int maxLimit,
+                              @Value("${messaging.search.max-results:1000}") int maxResults) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.coldArchive = coldArchive;
+        this.downstreamLimits = downstreamLimits;
+        this.messagingMetrics = messagingMetrics;
+        this.indexDir = Paths.get(indexDir);
+        this.shards = new Shard[shardCount];
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.refreshMs = refreshMs;
+        this.commitMs = commitMs;
+        this.catchUpWindow = Duration.ofMillis(catchUpWindowMs);
+        this.tailMs = tailMs;
+        this.batchSize = batchSize;
+        this.rebuildThreads = rebuildThreads;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+        this.maxResults = maxResults;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(indexDir);
+        long committedUpTo = Long.MAX_VALUE;
+        boolean complete = true;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(indexDir.resolve("shard-" + i));
+            Map<String, String> commitData = shards[i].commitData();
+            String upTo = commitData.get(INDEXED_UP_TO);
+            if (upTo == null || !String.valueOf(shards.length).equals(commitData.get(SHARD_COUNT))) {
+                complete = false;
+            } else {
+                committedUpTo = Math.min(committedUpTo, Long.parseLong(upTo));
+            }
+        }
+        if (complete) {
+            highestIndexedId.set(committedUpTo);
+            // Rows committed just before the last index commit may have reached the queue
+            // after higher ids did; re-reading a short window covers them.
+            droppedFromId.set(TimeOrderedIdGenerator.firstIdAt(
+                    TimeOrderedIdGenerator.timestampOf(committedUpTo).minus(catchUpWindow)));
+        } else {
+            needsRebuild = true;
+        }
+        messagingMetrics.gauge("messaging.search.index.queue", "Archived messages waiting to be indexed",
+                queue, BlockingQueue::size);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        indexer = new Thread(this::indexLoop, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        if (needsRebuild && (appArchivedMessageRepository.findMaxId() != null || !coldArchive.segmentsAfter(0, 1).isEmpty())) {
+            log.info("Search index at {} is empty or was built with a different shard count; rebuilding it.", indexDir);
+            rebuild();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (indexer != null) {
+            indexer.interrupt();
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        // An unfinished rebuild or catch-up is not committed: the next start resumes from the last commit.
+        if (!rebuilding.get() && droppedFromId.get() == NOTHING_DROPPED) {
+            try {
+                commit();
+            } catch (IOException e) {
+                log.error("Failed to commit the search index on shutdown", e);
+            }
+        }
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+
+    /**
+     * Queues a row that has just been committed to the archive. Never blocks.
+     */
+    public void index(AppArchivedMessage row) {
+        if (!queue.offer(row)) {
+            droppedFromId.accumulateAndGet(row.getId(), Math::min);
+            messagingMetrics.recordSearchIndexOverflow();
+        }
+    }
+
+    /**
+     * Searches the messages {@code ownerJid} sent or received, optionally only those
+     * exchanged with {@code peerJid}. {@code queryText} uses the simple query syntax:
+     * all words must match, {@code "..."} for phrases, {@code -} to exclude, {@code *} as
+     * a suffix wildcard and {@code |} for alternatives.
+     */
+    public MessageSearchPage search(String ownerJid, String peerJid, String queryText, int page, Integer limit) throws IOException {
+        if (queryText == null || queryText.isBlank()) {
+            throw new IllegalArgumentException("Search text must not be empty");
+        }
+        if (page < 0) {
+            throw new IllegalArgumentException("Page must not be negative");
+        }
+        int size = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        long start = System.nanoTime();
+        String owner = bareJid(ownerJid);
+        SimpleQueryParser parser = new SimpleQueryParser(analyzer, BODY);
+        parser.setDefaultOperator(BooleanClause.Occur.MUST);
+        Query text = parser.parse(queryText);
+        int from = page * size;
+        int to = Math.min(from + size, maxResults);
+        if (text == null || text instanceof MatchNoDocsQuery || from >= to) {
+            return new MessageSearchPage(List.of(), page, size, 0, false);
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+                .add(text, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(OWNER, owner)), BooleanClause.Occur.FILTER);
+        if (peerJid != null) {
+            query.add(new TermQuery(new Term(PEER, bareJid(peerJid))), BooleanClause.Occur.FILTER);
+        }
+        Query built = query.build();
+
+        SearcherManager manager = shardFor(owner).searcherManager;
+        IndexSearcher searcher = manager.acquire();
+        try {
+            TopDocs top = searcher.search(built, to);
+            ScoreDoc[] pageDocs = from < top.scoreDocs.length
+                    ? Arrays.copyOfRange(top.scoreDocs, from, top.scoreDocs.length)
+                    : new ScoreDoc[0];
+            UnifiedHighlighter highlighter = UnifiedHighlighter.builder(searcher, analyzer).build();
+            String[] snippets = highlighter.highlight(BODY, text, new TopDocs(top.totalHits, pageDocs), 1);
+            StoredFields storedFields = searcher.storedFields();
+            List<MessageSearchHit> hits = new ArrayList<>(pageDocs.length);
+            for (int i = 0; i < pageDocs.length; i++) {
+                Document document = storedFields.document(pageDocs[i].doc, HIT_FIELDS);
+                hits.add(new MessageSearchHit(
+                        document.getField(ID).numericValue().longValue(),
+                        document.get(FROM),
+                        document.get(PEER),
+                        Instant.ofEpochMilli(document.getField(SENT).numericValue().longValue()),
+                        pageDocs[i].score,
+                        snippets[i]));
+            }
+            boolean hasMore = top.totalHits.value > to && to < maxResults;
+            return new MessageSearchPage(hits, page, size, top.totalHits.value, hasMore);
+        } finally {
+            manager.release(searcher);
+            messagingMetrics.recordSearch(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts re-indexing the whole archive in the background unless a rebuild is already
+     * running. Searches keep seeing the previous index until it finishes.
+     */
+    public boolean rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread worker = new Thread(this::runRebuild, "search-rebuild");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public Map<String, Object> status() throws IOException {
+        long documents = 0;
+        for (Shard shard : shards) {
+            documents += shard.writer.getDocStats().numDocs;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("directory", indexDir.toAbsolutePath().toString());
+        status.put("shards", shards.length);
+        status.put("documents", documents);
+        status.put("queued", queue.size());
+        status.put("highestIndexedId", highestIndexedId.get());
+        status.put("rebuilding", rebuilding.get());
+        status.put("lastRebuildAt", lastRebuildAt);
+        status.put("lastRebuildMillis", lastRebuildTook != null ? lastRebuildTook.toMillis() : null);
+        return status;
+    }
+
+    private void indexLoop() {
+        List<AppArchivedMessage> batch = new ArrayList<>(batchSize);
+        long lastRefresh = System.currentTimeMillis();
+        long lastCommit = lastRefresh;
+        long lastTail = lastRefresh;
+        while (running) {
+            try {
+                AppArchivedMessage first = queue.poll(refreshMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (AppArchivedMessage row : batch) {
+                        add(row);
+                    }
+                    batch.clear();
+                }
+                long fromId = droppedFromId.getAndSet(NOTHING_DROPPED);
+                if (fromId != NOTHING_DROPPED && !catchUp(fromId)) {
+                    droppedFromId.accumulateAndGet(fromId, Math::min);
+                }
+                if (rebuilding.get()) {
+                    // The rebuild refreshes and commits once it is complete.
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (tailMs > 0 && now - lastTail >= tailMs) {
+                    // Picks up rows archived through other instances; a failed read waits for the next round.
+                    catchUp(tailFromId());
+                    lastTail = now;
+                }
+                if (now - lastRefresh >= refreshMs) {
+                    for (Shard shard : shards) {
+                        shard.searcherManager.maybeRefresh();
+                    }
+                    lastRefresh = now;
+                }
+                if (now - lastCommit >= commitMs && droppedFromId.get() == NOTHING_DROPPED) {
+                    commit();
+                    lastCommit = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                batch.clear();
+                log.error("Search indexer failed; continuing with the next batch", e);
+            }
+        }
+    }
+
+    /**
+     * Where tailing the archive starts: the catch-up window before the highest indexed
+     * id, as ids from different instances are only roughly in commit order.
+     */
+    private long tailFromId() {
+        long highest = highestIndexedId.get();
+        return highest == 0 ? 0 : TimeOrderedIdGenerator.firstIdAt(
+                TimeOrderedIdGenerator.timestampOf(highest).minus(catchUpWindow));
+    }
+
+    /**
+     * Re-reads the archive from {@code fromId} onwards. Returns false if the database
+     * could not be reached, so the caller tries again later.
+     */
+    private boolean catchUp(long fromId) throws IOException, InterruptedException {
+        long afterId = fromId - 1;
+        long indexed = 0;
+        try {
+            while (running) {
+                long after = afterId;
+                List<AppArchivedMessage> rows = downstreamLimits.jdbc().call(() ->
+                        appArchivedMessageRepository.findRange(after, Long.MAX_VALUE, PageRequest.of(0, batchSize)));
+                for (AppArchivedMessage row : rows) {
+                    add(row);
+                }
+                indexed += rows.size();
+                if (rows.size() < batchSize) {
+                    break;
+                }
+                afterId = rows.get(rows.size() - 1).getId();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Search index catch-up from id {} failed: {}", fromId, e.getMessage());
+            return false;
+        }
+        log.debug("Search index caught up on {} message(s) from id {}", indexed, fromId);
+        return true;
+    }
+
+    private void runRebuild() {
+        long start = System.nanoTime();
+        long indexed = 0;
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(rebuildThreads, rebuildThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(rebuildThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (Shard shard : shards) {
+                shard.writer.deleteAll();
+            }
+            // Read after the delete: anything committed later reaches the index through the queue.
+            Long maxId = downstreamLimits.jdbc().call(appArchivedMessageRepository::findMaxId);
+            long upToId = maxId != null ? maxId : 0;
+            log.info("Rebuilding the search index up to message id {} with {} thread(s).", upToId, rebuildThreads);
+            // Paging by primary key is cheap and sequential; analysis is what the workers share.
+            List<Future<?>> pending = new ArrayList<>();
+            long afterId = 0;
+            while (true) {
+                long after = afterId;
+                List<AppArchivedMessage> rows = downstreamLimits.jdbc().call(() ->
+                        appArchivedMessageRepository.findRange(after, upToId, PageRequest.of(0, batchSize)));
+                if (rows.isEmpty()) {
+                    break;
+                }
+                pending.add(workers.submit(() -> {
+                    for (AppArchivedMessage row : rows) {
+                        add(row);
+                    }
+                    return null;
+                }));
+                indexed += rows.size();
+                afterId = rows.get(rows.size() - 1).getId();
+                pending.removeIf(Future::isDone);
+            }
+            // After the table, so rows the cold tier mover takes meanwhile are read from there.
+            long afterSegmentId = 0;
+            while (true) {
+                long after = afterSegmentId;
+                List<ColdSegment> segments = downstreamLimits.jdbc().call(() -> coldArchive.segmentsAfter(after, batchSize));
+                if (segments.isEmpty()) {
+                    break;
+                }
+                for (ColdSegment segment : segments) {
+                    pending.add(workers.submit(() -> {
+                        for (AppArchivedMessage row : coldArchive.read(segment)) {
+                            add(row);
+                        }
+                        return null;
+                    }));
+                    indexed += segment.getMessageCount();
+                }
+                afterSegmentId = segments.get(segments.size() - 1).getId();
+                pending.removeIf(Future::isDone);
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+            commit();
+            for (Shard shard : shards) {
+                shard.searcherManager.maybeRefresh();
+            }
+            needsRebuild = false;
+            lastRebuildAt = Instant.now();
+            lastRebuildTook = Duration.ofNanos(System.nanoTime() - start);
+            log.info("Search index rebuilt from {} message(s) in {} ms.", indexed, lastRebuildTook.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Search index rebuild interrupted after {} message(s).", indexed);
+        } catch (Exception e) {
+            log.error("Search index rebuild failed after {} message(s); the last committed index stays in use.", indexed, e);
+            for (Shard shard : shards) {
+                shard.rollbackToLastCommit();
+            }
+            // Live rows indexed during the rebuild went with it.
+            String upTo = shards[0].commitData().get(INDEXED_UP_TO);
+            if (upTo != null) {
+                droppedFromId.accumulateAndGet(TimeOrderedIdGenerator.firstIdAt(
+                        TimeOrderedIdGenerator.timestampOf(Long.parseLong(upTo)).minus(catchUpWindow)), Math::min);
+            }
+        } finally {
+            workers.shutdownNow();
+            rebuilding.set(false);
+        }
+    }
+
+    private void add(AppArchivedMessage row) throws IOException {
+        String body = row.getBody();
+        String from = bareJid(row.getFromJid());
+        String to = bareJid(row.getToJid());
+        if (body == null || body.isBlank() || from == null || to == null) {
+            return;
+        }
+        addFor(from, to, row);
+        if (!from.equals(to)) {
+            addFor(to, from, row);
+        }
+        highestIndexedId.accumulateAndGet(row.getId(), Math::max);
+    }
+
+    private void addFor(String owner, String peer, AppArchivedMessage row) throws IOException {
+        String key = owner + "|" + row.getId();
+        Document document = new Document();
+        document.add(new StringField(KEY, key, Field.Store.NO));
+        document.add(new StringField(OWNER, owner, Field.Store.NO));
+        document.add(new StringField(PEER, peer, Field.Store.YES));
+        document.add(new StoredField(FROM, bareJid(row.getFromJid())));
+        document.add(new StoredField(ID, row.getId()));
+        document.add(new StoredField(SENT, row.getSentDate() != null ? row.getSentDate().toEpochMilli() : 0L));
+        document.add(new Field(BODY, row.getBody(), BODY_TYPE));
+        shardFor(owner).writer.updateDocument(new Term(KEY, key), document);
+    }
+
+    private void commit() throws IOException {
+        Map<String, String> commitData = Map.of(
+                INDEXED_UP_TO, String.valueOf(highestIndexedId.get()),
+                SHARD_COUNT, String.valueOf(shards.length));
+        for (Shard shard : shards) {
+            if (shard.writer.hasUncommittedChanges() || !commitData.equals(shard.commitData())) {
+                shard.writer.setLiveCommitData(commitData.entrySet());
+                shard.writer.commit();
+            }
+        }
+    }
+
+    private Shard shardFor(String owner) {
+        return shards[Math.floorMod(owner.hashCode(), shards.length)];
+    }
+
+    private static String bareJid(String jid) {
+        int slash = jid != null ? jid.indexOf('/') : -1;
+        return slash >= 0 ? jid.substring(0, slash) : jid;
+    }
+
+    private final class Shard {
+        private final FSDirectory directory;
+        private volatile IndexWriter writer;
+        private volatile SearcherManager searcherManager;
+
+        private Shard(Path path) throws IOException {
+            this.directory = FSDirectory.open(path);
+            openWriter();
+        }
+
+        private void openWriter() throws IOException {
+            IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+                    .setCommitOnClose(false);
+            writer = new IndexWriter(directory, config);
+            searcherManager = new SearcherManager(writer, new SearcherFactory());
+        }
+
+        private Map<String, String> commitData() {
+            Map<String, String> data = new HashMap<>();
+            Iterable<Map.Entry<String, String>> live = writer.getLiveCommitData();
+            if (live != null) {
+                live.forEach(entry -> data.put(entry.getKey(), entry.getValue()));
+            }
+            return data;
+        }
+
+        /**
+         * Drops everything since the last commit and reopens the shard on it.
+         */
+        private void rollbackToLastCommit() {
+            try {
+                searcherManager.close();
+                writer.rollback();
+                openWriter();
+            } catch (IOException e) {
+                log.error("Failed to reopen search index shard {}", directory.getDirectory(), e);
+            }
+        }
+
+        private void close() {
+            try {
+                searcherManager.close();
+                writer.close();
+                directory.close();
+            } catch (IOException e) {
+                log.error("Failed to close search index shard {}", directory.getDirectory(), e);
+            }
+        }
+    }
+}
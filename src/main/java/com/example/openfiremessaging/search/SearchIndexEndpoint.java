@@ -0,0 +1,35 @@
+package com.example.openfiremessaging.search;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@code /actuator/searchindex}: the state of the search index, and a POST to rebuild it
+ * from the archive. Not exposed over HTTP unless added to
+ * {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "searchindex")
+public class SearchIndexEndpoint {
+
+    private final MessageSearchIndex messageSearchIndex;
+
+    public SearchIndexEndpoint(MessageSearchIndex messageSearchIndex) {
+        this.messageSearchIndex = messageSearchIndex;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() throws IOException {
+        return messageSearchIndex.status();
+    }
+
+    @WriteOperation
+    public Map<String, Object> rebuild() {
+        return Map.of("started", messageSearchIndex.rebuild());
+    }
+}
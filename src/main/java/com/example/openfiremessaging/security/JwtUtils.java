@@ -1,13 +1,22 @@
 package com.example.openfiremessaging.security;
 
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+@Slf4j
 @Component
 public class JwtUtils {
 
@@ -17,35 +26,97 @@ public class JwtUtils {
     @Value("${app.jwt.expiration-ms}")
     private int jwtExpirationMs;
 
+    @Value("${app.jwt.verified-cache-size:10000}")
+    private int verifiedCacheSize;
+
+    // The key and parser are immutable and thread-safe, so they are built once.
+    private SecretKey key;
+    private JwtParser parser;
+
+    // Tokens whose signature has already been verified, until their own expiry.
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+    private volatile long lastPurgeMillis;
+
+    private final MessagingMetrics messagingMetrics;
+
+    public JwtUtils(MessagingMetrics messagingMetrics) {
+        this.messagingMetrics = messagingMetrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        key = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parser().verifyWith(key).build();
+    }
+
     public String generateJwtToken(String username) {
-        SecretKey key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        Date now = new Date();
         return Jwts.builder()
                 .subject(username)
-                .issuedAt(new Date())
-                .expiration(new Date((new Date()).getTime() + jwtExpirationMs))
+                .issuedAt(now)
+                .expiration(new Date(now.getTime() + jwtExpirationMs))
                 .signWith(key)
                 .compact();
     }
 
+    /**
+     * Returns the subject of a valid token, or null if the token is malformed, forged or
+     * expired. The signature of a given token is verified once; after that the subject is
+     * served from a bounded cache until the token's own {@code exp}.
+     */
+    public String getVerifiedSubject(String authToken) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verifiedTokens.get(authToken);
+        if (cached != null) {
+            String subject = cached.expiresAtMillis > now ? cached.subject : null;
+            if (subject == null) {
+                verifiedTokens.remove(authToken, cached);
+            }
+            messagingMetrics.recordJwtVerification(true, subject != null, System.nanoTime() - start);
+            return subject;
+        }
+
+        Claims claims;
+        try {
+            claims = parser.parseSignedClaims(authToken).getPayload();
+        } catch (Exception e) {
+            log.debug("Rejected JWT: {}", e.getMessage());
+            messagingMetrics.recordJwtVerification(false, false, System.nanoTime() - start);
+            return null;
+        }
+
+        Date expiration = claims.getExpiration();
+        if (expiration != null) {
+            cache(authToken, new VerifiedToken(claims.getSubject(), expiration.getTime()), now);
+        }
+        messagingMetrics.recordJwtVerification(false, true, System.nanoTime() - start);
+        return claims.getSubject();
+    }
+
     public String getUserNameFromJwtToken(String authToken) {
-        SecretKey key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(authToken)
-                .getPayload()
-                .getSubject();
+        return getVerifiedSubject(authToken);
     }
 
     public boolean validateJwtToken(String authToken) {
-        try {
-            SecretKey key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
-            Jwts.parser().verifyWith(key).build().parseSignedClaims(authToken);
-            return true;
-        } catch (Exception e) {
-            // Log error in a real app
+        return getVerifiedSubject(authToken) != null;
+    }
+
+    private void cache(String authToken, VerifiedToken verified, long now) {
+        if (verifiedTokens.size() >= verifiedCacheSize) {
+            // Sweeping is O(size), so do it at most once a second however many new tokens arrive.
+            if (now - lastPurgeMillis >= 1000) {
+                lastPurgeMillis = now;
+                verifiedTokens.values().removeIf(t -> t.expiresAtMillis <= now);
+            }
+            if (verifiedTokens.size() >= verifiedCacheSize) {
+                // Still full of live tokens: skip caching rather than grow without bound.
+                return;
+            }
         }
-        return false;
+        verifiedTokens.put(authToken, verified);
     }
-}
 
+    private record VerifiedToken(String subject, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces archive inserts from concurrent senders into multi-row JDBC batches.
+ *
+ * Callers hand over rows and wait on a future; a single writer thread takes everything
+ * that is queued (up to {@code messaging.archive.batch-size} rows) and inserts it in one
+ * transaction. While a batch is being written the next one accumulates, so batches grow
+ * with load without adding latency when idle. {@code messaging.archive.linger-ms} can
+ * additionally hold a batch open for stragglers, which only pays off when callers do not
+ * wait for their own row. Ids come from {@code TimeOrderedIdGenerator}, so
+ * Hibernate can send the batch as batched JDBC inserts. If a batch fails, its rows are
+ * retried one by one so a single bad row does not fail its neighbours. The inbox
+ * summaries of the batch are updated in the same transaction as its rows.
+ *
+ * {@link #submitAll} queues a group of rows as one entry, so the whole group lands in
+ * the same batch and transaction however large it is.
+ */
+@Slf4j
+@Component
+public class ArchiveWriter {
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final InboxService inboxService;
+    private final MessagingMetrics messagingMetrics;
+    private final BlockingQueue<PendingRows> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public ArchiveWriter(AppArchivedMessageRepository appArchivedMessageRepository,
+                         TransactionTemplate transactionTemplate,
+                         InboxService inboxService,
+                         MessagingMetrics messagingMetrics,
+                         @Value("${messaging.archive.queue-capacity:20000}") int queueCapacity,
+                         @Value("${messaging.archive.batch-size:200}") int batchSize,
+                         @Value("${messaging.archive.linger-ms:0}") long lingerMs) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.inboxService = inboxService;
+        this.messagingMetrics = messagingMetrics;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::writeLoop, "archive-writer");
+        writer.setDaemon(true);
+        writer.start();
+        messagingMetrics.gauge("messaging.archive.queue", "Archive rows waiting for the writer", queue, BlockingQueue::size);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Inserts the row as part of the next batch and waits until that batch is committed.
+     */
+    public void write(AppArchivedMessage row) throws InterruptedException {
+        await(submit(row));
+    }
+
+    /**
+     * Queues the row for the next batch, blocking while the queue is full.
+     */
+    public CompletableFuture<AppArchivedMessage> submit(AppArchivedMessage row) throws InterruptedException {
+        return submitAll(List.of(row)).get(0);
+    }
+
+    /**
+     * Queues the rows to be inserted together in the next batch, blocking while the queue
+     * is full. Returns one future per row, in order.
+     */
+    public List<CompletableFuture<AppArchivedMessage>> submitAll(List<AppArchivedMessage> rows) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Archive writer is not running");
+        }
+        PendingRows pending = new PendingRows(rows);
+        queue.put(pending);
+        return pending.futures;
+    }
+
+    private static void await(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingRows> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                if (running) {
+                    continue;
+                }
+                // Shutting down: flush whatever is already queued without waiting for more.
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<PendingRows> batch) throws InterruptedException {
+        PendingRows first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - batch.size());
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize && lingerNanos > 0) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingRows next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<PendingRows> batch) {
+        List<AppArchivedMessage> rows = new ArrayList<>(batch.size());
+        for (PendingRows pending : batch) {
+            rows.addAll(pending.rows);
+        }
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                appArchivedMessageRepository.saveAll(rows);
+                inboxService.recordArchived(rows, true);
+            });
+            messagingMetrics.recordArchiveFlush(rows.size(), System.nanoTime() - start);
+            for (PendingRows pending : batch) {
+                for (int i = 0; i < pending.rows.size(); i++) {
+                    pending.futures.get(i).complete(pending.rows.get(i));
+                }
+            }
+            log.debug("Archive writer flushed a batch of {} row(s).", rows.size());
+        } catch (RuntimeException e) {
+            log.warn("Archive batch of {} row(s) failed, retrying rows individually: {}", rows.size(), e.getMessage());
+            for (PendingRows pending : batch) {
+                for (int i = 0; i < pending.rows.size(); i++) {
+                    AppArchivedMessage row = pending.rows.get(i);
+                    // A failed batch may have assigned ids before rolling back; let each retry draw a fresh one.
+                    row.setId(null);
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            appArchivedMessageRepository.save(row);
+                            inboxService.recordArchived(List.of(row), true);
+                        });
+                        pending.futures.get(i).complete(row);
+                    } catch (RuntimeException rowFailure) {
+                        pending.futures.get(i).completeExceptionally(rowFailure);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class PendingRows {
+        private final List<AppArchivedMessage> rows;
+        private final List<CompletableFuture<AppArchivedMessage>> futures;
+
+        private PendingRows(List<AppArchivedMessage> rows) {
+            this.rows = rows;
+            this.futures = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                futures.add(new CompletableFuture<>());
+            }
+        }
+    }
+}
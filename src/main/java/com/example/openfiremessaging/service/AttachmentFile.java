@@ -0,0 +1,33 @@
+package com.example.openfiremessaging.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * An attachment resolved for download: where it is on disk, the name to offer the
+ * client, its size and modification time, and the entity tag that validates it. A
+ * gzipped attachment also has the size of the compressed file; {@code size} is always
+ * that of the original content.
+ */
+@Getter
+@AllArgsConstructor
+public class AttachmentFile {
+    private final Path path;
+    private final String name;
+    private final long size;
+    private final Instant lastModified;
+    private final String etag;
+    private final boolean gzipped;
+    private final long storedSize;
+
+    /**
+     * Whether the entity tag is strong, i.e. changes whenever any byte changes, and so
+     * may be used to resume a download with {@code If-Range}.
+     */
+    public boolean hasStrongEtag() {
+        return !etag.startsWith("W/");
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.repository.AttachmentBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reclaims attachment blobs nobody references any more, plus temp files left behind by
+ * uploads that died half-way. Blobs get a grace period after their last release so an
+ * in-flight send that is about to reference them again is not raced.
+ */
+@Slf4j
+@Component
+public class AttachmentGarbageCollector {
+
+    private final AttachmentStorage attachmentStorage;
+    private final AttachmentBlobRepository attachmentBlobRepository;
+    private final Duration gracePeriod;
+    private final int batchSize;
+
+    public AttachmentGarbageCollector(AttachmentStorage attachmentStorage,
+                                      AttachmentBlobRepository attachmentBlobRepository,
+                                      @Value("${file.gc.grace-period-ms:3600000}") long gracePeriodMs,
+                                      @Value("${file.gc.batch-size:500}") int batchSize) {
+        this.attachmentStorage = attachmentStorage;
+        this.attachmentBlobRepository = attachmentBlobRepository;
+        this.gracePeriod = Duration.ofMillis(gracePeriodMs);
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${file.gc.interval-ms:3600000}", initialDelayString = "${file.gc.interval-ms:3600000}")
+    public void collect() {
+        Instant cutoff = Instant.now().minus(gracePeriod);
+        int deleted = 0;
+        List<String> candidates;
+        int deletedInRound;
+        do {
+            candidates = attachmentBlobRepository.findUnreferencedSince(cutoff, PageRequest.of(0, batchSize));
+            deletedInRound = 0;
+            for (String hash : candidates) {
+                try {
+                    if (attachmentStorage.deleteIfUnreferenced(hash)) {
+                        deletedInRound++;
+                    }
+                } catch (IOException e) {
+                    log.warn("Could not delete unreferenced attachment blob {}: {}", hash, e.getMessage());
+                }
+            }
+            deleted += deletedInRound;
+        } while (candidates.size() == batchSize && deletedInRound > 0);
+
+        int tempFiles = sweepTempFiles(cutoff);
+        if (deleted > 0 || tempFiles > 0) {
+            log.info("Attachment GC reclaimed {} blob(s) and {} stale temp file(s).", deleted, tempFiles);
+        }
+    }
+
+    private int sweepTempFiles(Instant cutoff) {
+        int swept = 0;
+        for (Path tempDirectory : attachmentStorage.tempDirectories()) {
+            try (Stream<Path> files = Files.list(tempDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoff) && Files.deleteIfExists(file)) {
+                        swept++;
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Could not sweep attachment temp directory {}: {}", tempDirectory, e.getMessage());
+            }
+        }
+        return swept;
+    }
+}
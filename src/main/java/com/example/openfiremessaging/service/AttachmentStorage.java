@@ -0,0 +1,468 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AttachmentBlob;
+import com.example.openfiremessaging.repository.AttachmentBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed store for message attachments.
+ *
+ * Every attachment is keyed by the SHA-256 of its bytes and written once to a sharded
+ * path ({@code <dir>/ab/cd/<hash>}) under the file or media directory. An
+ * {@link AttachmentBlob} row keeps a reference count per hash, so forwarding the same
+ * file to many recipients costs one hash pass over the content and no disk write.
+ *
+ * Content is always streamed through a single fixed-size buffer, so the heap used per
+ * upload does not depend on the attachment size. Base64 payloads from the JSON API are
+ * {@linkplain #stage staged}: decoded and hashed into a temp file while the request body
+ * is parsed, then moved into place by {@link #store(StagedAttachment, String)}.
+ *
+ * With {@code file.compression.enabled}, blobs of a compressible type (by the extension
+ * of the original file name) are gzipped at rest as {@code <hash>.gz}, if that saves at
+ * least a tenth of the space. The hash, and so deduplication and the entity tag, stays
+ * that of the original content.
+ */
+@Slf4j
+@Component
+public class AttachmentStorage {
+
+    public enum Kind {
+        FILE,
+        MEDIA
+    }
+
+    private static final String TEMP_DIR = ".tmp";
+    private static final int LOCK_STRIPES = 64;
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}");
+    private static final String GZIP_SUFFIX = ".gz";
+    // The gzip trailer records the content size modulo 2^32.
+    private static final long GZIP_MAX_CONTENT_BYTES = 0xFFFFFFFFL;
+
+    private final AttachmentBlobRepository attachmentBlobRepository;
+    private final DownstreamLimits downstreamLimits;
+    private final MessagingMetrics messagingMetrics;
+    private final Path fileStorageLocation;
+    private final Path mediaStorageLocation;
+    private final int bufferSize;
+    private final boolean compressionEnabled;
+    private final List<MediaType> compressibleTypes;
+    private final long compressionMinBytes;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public AttachmentStorage(AttachmentBlobRepository attachmentBlobRepository,
+                             DownstreamLimits downstreamLimits,
+                             MessagingMetrics messagingMetrics,
+                             @Value("${file.attachment-dir1}") String fileUploadPath,
+                             @Value("${file.attachment-dir2}") String mediaUploadPath,
+                             @Value("${file.attachment-buffer-bytes:65536}") int bufferSize,
+                             @Value("${file.compression.enabled:false}") boolean compressionEnabled,
+                             @Value("${file.compression.mime-types:text/*,application/json,application/xml,application/javascript,image/svg+xml}")
+                             List<String> compressibleTypes,
+                             @Value("${file.compression.min-bytes:1024}") long compressionMinBytes) {
+        this.attachmentBlobRepository = attachmentBlobRepository;
+        this.downstreamLimits = downstreamLimits;
+        this.messagingMetrics = messagingMetrics;
+        this.fileStorageLocation = Paths.get(fileUploadPath).toAbsolutePath().normalize();
+        this.mediaStorageLocation = Paths.get(mediaUploadPath).toAbsolutePath().normalize();
+        this.bufferSize = bufferSize;
+        this.compressionEnabled = compressionEnabled;
+        this.compressibleTypes = compressibleTypes.stream().map(MediaType::parseMediaType).toList();
+        this.compressionMinBytes = compressionMinBytes;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        try {
+            Files.createDirectories(this.fileStorageLocation.resolve(TEMP_DIR));
+            Files.createDirectories(this.mediaStorageLocation.resolve(TEMP_DIR));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create the directories where the uploaded files will be stored.", ex);
+        }
+    }
+
+    /**
+     * Writes an attachment into a temp file, hashing it on the way. {@code content} pushes
+     * the decoded bytes, typically straight from the JSON parser. Returns null for empty
+     * content, which counts as no attachment.
+     *
+     * Staging is not bounded by the attachment I/O bulkhead: its pace is set by the
+     * client sending the request body, and a slow client must not hold a permit.
+     */
+    public StagedAttachment stage(Kind kind, ContentWriter content) throws IOException {
+        Path tempFile = locationOf(kind).resolve(TEMP_DIR).resolve(UUID.randomUUID().toString());
+        MessageDigest digest = sha256();
+        boolean staged = false;
+        try {
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), bufferSize), digest)) {
+                content.writeTo(out);
+            }
+            long size = Files.size(tempFile);
+            if (size == 0) {
+                return null;
+            }
+            staged = true;
+            return new StagedAttachment(tempFile, kind, size, HexFormat.of().formatHex(digest.digest()));
+        } finally {
+            if (!staged) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Stores a staged attachment. Its hash is already known, so a duplicate costs no
+     * read at all and new content is moved into place instead of being copied.
+     */
+    public StoredAttachment store(StagedAttachment staged, String originalFileName) throws IOException {
+        long start = System.nanoTime();
+        try {
+            StoredAttachment stored = downstreamLimits.attachmentIo().call(() ->
+                    storeBlob(staged.getHash(), originalFileName, staged.getKind(), blobPath -> {
+                        Files.createDirectories(blobPath.getParent());
+                        Files.move(staged.getPath(), blobPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                        return staged.getSize();
+                    }));
+            messagingMetrics.recordAttachmentStore(staged.getKind(), stored.getSize(), stored.isDeduplicated(), System.nanoTime() - start);
+            return stored;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for attachment I/O");
+        } finally {
+            // Unless it was moved into place just now.
+            staged.discard();
+        }
+    }
+
+    /**
+     * Stores the content of a re-readable source. The source is read once to compute its
+     * hash; only if no blob with that hash exists is it read a second time and written.
+     */
+    public StoredAttachment store(InputStreamSource content, String originalFileName, Kind kind) throws IOException {
+        long start = System.nanoTime();
+        try {
+            StoredAttachment stored = downstreamLimits.attachmentIo().call(() -> storeContent(content, originalFileName, kind));
+            messagingMetrics.recordAttachmentStore(kind, stored.getSize(), stored.isDeduplicated(), System.nanoTime() - start);
+            return stored;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for attachment I/O");
+        }
+    }
+
+    private StoredAttachment storeContent(InputStreamSource content, String originalFileName, Kind kind) throws IOException {
+        String hash;
+        try (InputStream in = content.getInputStream()) {
+            hash = copyAndHash(Channels.newChannel(in), null);
+        }
+        return storeBlob(hash, originalFileName, kind, blobPath -> writeBlob(content, kind, hash, blobPath));
+    }
+
+    /**
+     * Takes a reference to the blob with the given hash, calling {@code writer} to put
+     * the content at the blob path first if no intact blob exists yet.
+     */
+    private StoredAttachment storeBlob(String hash, String originalFileName, Kind kind, BlobWriter writer) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Optional<AttachmentBlob> existing = attachmentBlobRepository.findById(hash);
+            if (existing.isPresent() && Files.exists(Paths.get(existing.get().getPath()))) {
+                attachmentBlobRepository.adjustRefCount(hash, 1, Instant.now());
+                log.info("Attachment '{}' deduplicated against existing blob {}", originalFileName, hash);
+                return new StoredAttachment(hash + extensionOf(originalFileName), existing.get().getPath(), hash,
+                        existing.get().getSize(), true);
+            }
+
+            Path blobPath = existing.map(b -> uncompressedPath(Paths.get(b.getPath()))).orElseGet(() -> blobPathFor(kind, hash));
+            long size = writer.write(blobPath);
+            blobPath = compressIfWorthwhile(blobPath, originalFileName, kind, size);
+
+            if (existing.isPresent()) {
+                // The row survived but the file was lost; it has just been rewritten in place.
+                if (!blobPath.toString().equals(existing.get().getPath())) {
+                    attachmentBlobRepository.updatePath(hash, blobPath.toString());
+                }
+                attachmentBlobRepository.adjustRefCount(hash, 1, Instant.now());
+            } else {
+                AttachmentBlob blob = new AttachmentBlob();
+                blob.setHash(hash);
+                blob.setPath(blobPath.toString());
+                blob.setSize(size);
+                blob.setRefCount(1);
+                blob.setCreatedAt(Instant.now());
+                blob.setUpdatedAt(blob.getCreatedAt());
+                attachmentBlobRepository.save(blob);
+            }
+
+            log.info("Saved attachment '{}' to: {}", originalFileName, blobPath);
+            return new StoredAttachment(hash + extensionOf(originalFileName), blobPath.toString(), hash, size, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes additional references to a stored blob, e.g. for further archive rows sharing
+     * one upload.
+     */
+    public void retain(String blobPath, int references) {
+        if (blobPath == null || references <= 0) {
+            return;
+        }
+        attachmentBlobRepository.adjustRefCount(hashOf(blobPath), references, Instant.now());
+    }
+
+    /**
+     * Drops one reference to the blob at the given path, e.g. when the archive row that
+     * pointed at it could not be written. Unreferenced blobs are reclaimed by
+     * {@link AttachmentGarbageCollector}.
+     */
+    public void release(String blobPath) {
+        if (blobPath == null) {
+            return;
+        }
+        attachmentBlobRepository.adjustRefCount(hashOf(blobPath), -1, Instant.now());
+    }
+
+    /**
+     * Deletes the blob row and file if the blob is still unreferenced. Runs under the
+     * same per-hash lock as {@link #store}, so a concurrent upload of the same content
+     * either revives the blob first or recreates it afterwards.
+     */
+    boolean deleteIfUnreferenced(String hash) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Optional<AttachmentBlob> blob = attachmentBlobRepository.findById(hash);
+            if (blob.isEmpty() || attachmentBlobRepository.deleteIfUnreferenced(hash) == 0) {
+                return false;
+            }
+            Files.deleteIfExists(Paths.get(blob.get().getPath()));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resolves an attachment path recorded on a message for download. Paths outside the
+     * attachment directories are refused. A blob is named by its SHA-256, which then is
+     * its strong entity tag; files stored before content addressing get a weak tag made
+     * of their size and modification time. A gzipped blob reports the size of its
+     * original content, read from the gzip trailer.
+     */
+    public Optional<AttachmentFile> locate(String storedPath, String name) throws IOException {
+        if (storedPath == null) {
+            return Optional.empty();
+        }
+        Path path = Paths.get(storedPath).toAbsolutePath().normalize();
+        if (!path.startsWith(fileStorageLocation) && !path.startsWith(mediaStorageLocation)) {
+            log.warn("Refusing to serve attachment outside the attachment directories: {}", path);
+            return Optional.empty();
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            log.warn("Attachment {} is recorded on a message but missing on disk", path);
+            return Optional.empty();
+        }
+        String fileName = path.getFileName().toString();
+        String blobName = uncompressedPath(path).getFileName().toString();
+        boolean gzipped = !blobName.equals(fileName) && BLOB_NAME.matcher(blobName).matches();
+        Instant lastModified = attributes.lastModifiedTime().toInstant();
+        String etag = BLOB_NAME.matcher(blobName).matches()
+                ? "\"" + blobName + "\""
+                : "W/\"" + Long.toHexString(attributes.size()) + "-" + Long.toHexString(lastModified.toEpochMilli()) + "\"";
+        long size = gzipped ? gzipContentSize(path) : attributes.size();
+        return Optional.of(new AttachmentFile(path, name != null ? name : fileName, size, lastModified, etag,
+                gzipped, attributes.size()));
+    }
+
+    Path[] tempDirectories() {
+        return new Path[]{fileStorageLocation.resolve(TEMP_DIR), mediaStorageLocation.resolve(TEMP_DIR)};
+    }
+
+    private long writeBlob(InputStreamSource content, Kind kind, String expectedHash, Path blobPath) throws IOException {
+        Path tempFile = locationOf(kind).resolve(TEMP_DIR).resolve(UUID.randomUUID().toString());
+        try {
+            String hash;
+            try (InputStream in = content.getInputStream();
+                 FileChannel target = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                hash = copyAndHash(Channels.newChannel(in), target);
+            }
+            if (!hash.equals(expectedHash)) {
+                throw new IOException("Attachment content changed between hashing and writing");
+            }
+            Files.createDirectories(blobPath.getParent());
+            long size = Files.size(tempFile);
+            Files.move(tempFile, blobPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return size;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Streams the source through one bounded buffer, hashing it and, if a target is
+     * given, writing it. Returns the lowercase hex SHA-256.
+     */
+    private String copyAndHash(ReadableByteChannel source, FileChannel target) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            digest.update(buffer.array(), 0, buffer.limit());
+            if (target != null) {
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Replaces the blob at {@code blobPath} with a gzipped {@code <hash>.gz} if it has a
+     * compressible type and shrinks by at least a tenth; anything less is not worth
+     * decompressing on every download. Returns the path the blob ends up at.
+     */
+    private Path compressIfWorthwhile(Path blobPath, String originalFileName, Kind kind, long size) throws IOException {
+        if (!compressionEnabled || size < compressionMinBytes || size > GZIP_MAX_CONTENT_BYTES
+                || !isCompressible(originalFileName)) {
+            return blobPath;
+        }
+        Path tempFile = (blobPath.startsWith(mediaStorageLocation) ? mediaStorageLocation : fileStorageLocation)
+                .resolve(TEMP_DIR).resolve(UUID.randomUUID().toString());
+        try {
+            try (InputStream in = Files.newInputStream(blobPath);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile,
+                         StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), bufferSize)) {
+                in.transferTo(out);
+            }
+            long compressedSize = Files.size(tempFile);
+            if (compressedSize > size - size / 10) {
+                return blobPath;
+            }
+            Path compressedPath = blobPath.resolveSibling(blobPath.getFileName() + GZIP_SUFFIX);
+            Files.move(tempFile, compressedPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(blobPath);
+            messagingMetrics.recordAttachmentCompressed(kind, size, compressedSize);
+            return compressedPath;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private boolean isCompressible(String originalFileName) {
+        return MediaTypeFactory.getMediaType(originalFileName)
+                .map(type -> compressibleTypes.stream().anyMatch(compressible -> compressible.includes(type)))
+                .orElse(false);
+    }
+
+    /**
+     * The original content size of a gzip file, from the last four bytes of its trailer.
+     */
+    private static long gzipContentSize(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            long position = channel.size() - 4;
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, position + trailer.position()) < 0) {
+                    throw new IOException("Truncated gzip attachment " + path);
+                }
+            }
+            return Integer.toUnsignedLong(trailer.getInt(0));
+        }
+    }
+
+    private static Path uncompressedPath(Path blobPath) {
+        String fileName = blobPath.getFileName().toString();
+        return fileName.endsWith(GZIP_SUFFIX)
+                ? blobPath.resolveSibling(fileName.substring(0, fileName.length() - GZIP_SUFFIX.length()))
+                : blobPath;
+    }
+
+    private static String hashOf(String blobPath) {
+        return uncompressedPath(Paths.get(blobPath)).getFileName().toString();
+    }
+
+    private Path blobPathFor(Kind kind, String hash) {
+        return locationOf(kind).resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path locationOf(Kind kind) {
+        return kind == Kind.MEDIA ? mediaStorageLocation : fileStorageLocation;
+    }
+
+    private ReentrantLock lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String extensionOf(String originalFileName) {
+        String cleanOriginalName = StringUtils.cleanPath(originalFileName);
+        if (cleanOriginalName.contains(".")) {
+            return cleanOriginalName.substring(cleanOriginalName.lastIndexOf("."));
+        }
+        return "";
+    }
+
+    /**
+     * Pushes the bytes of an attachment into a stream.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BlobWriter {
+        long write(Path blobPath) throws IOException;
+    }
+}
@@ -1,5 +1,9 @@
 package com.example.openfiremessaging.service;
 
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.xmpp.HashRing;
+import com.example.openfiremessaging.xmpp.XmppNode;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.ConnectionConfiguration;
@@ -13,25 +17,152 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 @Slf4j
 public class AuthService {
 
     private final String openfireXmppDomain;
-    private final String openfireXmppHost;
-    private final int openfireXmppPort;
+    private final HashRing<XmppNode> nodes;
+    private final long ejectionMs;
+    private final int replyTimeoutMs;
+    private final CredentialCache credentialCache;
+    private final Map<String, CompletableFuture<Boolean>> inFlightLogins = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor verificationPool;
+    private final MessagingMetrics messagingMetrics;
 
-    public AuthService(@Value("${openfire.xmpp.domain}") String openfireXmppDomain,
-                       @Value("${openfire.xmpp.host}") String openfireXmppHost,
-                       @Value("${openfire.xmpp.port}") int openfireXmppPort) {
+    public AuthService(MessagingMetrics messagingMetrics,
+                       @Value("${openfire.xmpp.domain}") String openfireXmppDomain,
+                       @Value("${openfire.xmpp.nodes:${openfire.xmpp.host}:${openfire.xmpp.port}}") String nodeList,
+                       @Value("${openfire.xmpp.port}") int defaultPort,
+                       @Value("${openfire.pool.virtual-nodes:160}") int virtualNodes,
+                       @Value("${openfire.pool.ejection-ms:30000}") long ejectionMs,
+                       @Value("${openfire.auth.reply-timeout-ms:10000}") int replyTimeoutMs,
+                       @Value("${openfire.auth.cache-ttl-ms:300000}") long cacheTtlMs,
+                       @Value("${openfire.auth.cache-size:10000}") int cacheSize,
+                       @Value("${openfire.auth.verification-threads:8}") int verificationThreads,
+                       @Value("${openfire.auth.verification-queue:200}") int verificationQueue,
+                       @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.messagingMetrics = messagingMetrics;
         this.openfireXmppDomain = openfireXmppDomain;
-        this.openfireXmppHost = openfireXmppHost;
-        this.openfireXmppPort = openfireXmppPort;
+        // Logins are spread over the nodes by username, failing over when a node is unreachable.
+        this.nodes = new HashRing<>(XmppNode.parseList(nodeList, defaultPort), virtualNodes);
+        this.ejectionMs = ejectionMs;
+        this.replyTimeoutMs = replyTimeoutMs;
+        this.credentialCache = new CredentialCache(cacheTtlMs, cacheSize);
+
+        // At most verificationThreads concurrent Openfire sessions for logins, however big the burst.
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("login-verifier-", 1).factory()
+                : Thread.ofPlatform().name("login-verifier-", 1).daemon().factory();
+        this.verificationPool = new ThreadPoolExecutor(verificationThreads, verificationThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(verificationQueue),
+                threadFactory, new ThreadPoolExecutor.AbortPolicy());
     }
 
+    /**
+     * Checks the credentials, answering from the credential cache when possible and
+     * otherwise verifying against Openfire on the bounded verification pool. Concurrent
+     * logins with the same username and password share one verification.
+     *
+     * @throws RejectedExecutionException if the verification pool is saturated
+     */
     public boolean authenticate(String username, String password) {
-        log.info("Attempting to authenticate user: {}", username);
+        long start = System.nanoTime();
+        if (credentialCache.matches(username, password)) {
+            log.debug("User {} authenticated from the credential cache.", username);
+            messagingMetrics.recordAuthentication(MessagingMetrics.AuthOutcome.CACHED, System.nanoTime() - start);
+            return true;
+        }
+
+        String flightKey = credentialCache.fingerprint(username, password);
+        CompletableFuture<Boolean> verification = new CompletableFuture<>();
+        CompletableFuture<Boolean> inFlight = inFlightLogins.putIfAbsent(flightKey, verification);
+        if (inFlight == null) {
+            inFlight = verification;
+            try {
+                verificationPool.execute(() -> {
+                    try {
+                        boolean verified = verifyWithOpenfire(username, password);
+                        if (verified) {
+                            credentialCache.put(username, password);
+                        }
+                        verification.complete(verified);
+                    } catch (RuntimeException e) {
+                        verification.completeExceptionally(e);
+                    } finally {
+                        inFlightLogins.remove(flightKey, verification);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlightLogins.remove(flightKey, verification);
+                log.warn("Login verification pool is saturated, rejecting login for {}", username);
+                verification.completeExceptionally(e);
+                messagingMetrics.recordAuthentication(MessagingMetrics.AuthOutcome.BUSY, System.nanoTime() - start);
+                throw new RejectedExecutionException("Login verification is saturated", e);
+            }
+        } else {
+            log.debug("Joining in-flight verification for user {}", username);
+        }
+
+        boolean authenticated = awaitVerification(inFlight, username);
+        messagingMetrics.recordAuthentication(authenticated ? MessagingMetrics.AuthOutcome.VERIFIED
+                : MessagingMetrics.AuthOutcome.DENIED, System.nanoTime() - start);
+        return authenticated;
+    }
+
+    private boolean awaitVerification(CompletableFuture<Boolean> verification, String username) {
+        try {
+            return verification.get(replyTimeoutMs * 2L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Login verification for user {} did not complete: {}", username, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Verifies on the user's node, moving on to the next one on the ring while a node
+     * cannot be reached. An unreachable node is ejected for a while, so later logins skip
+     * it instead of waiting for the connect timeout again.
+     */
+    private boolean verifyWithOpenfire(String username, String password) {
+        while (true) {
+            XmppNode node = nodes.route(username, XmppNode::isAvailable);
+            if (node == null) {
+                // Every node is ejected: try the user's own one rather than failing outright.
+                node = nodes.route(username, n -> true);
+            }
+            Boolean verified = verifyOn(node, username, password);
+            if (verified != null) {
+                return verified;
+            }
+            if (!node.eject(ejectionMs) || nodes.route(username, XmppNode::isAvailable) == null) {
+                log.error("Failed to connect or login for user {}: Openfire node {} is unreachable", username, node);
+                return false;
+            }
+            log.warn("Openfire node {} is unreachable, ejected for {} ms; trying the next node for user {}.",
+                    node, ejectionMs, username);
+        }
+    }
+
+    /**
+     * Returns whether the credentials are valid, or null if {@code node} could not be reached.
+     */
+    private Boolean verifyOn(XmppNode node, String username, String password) {
+        log.info("Attempting to authenticate user: {} on {}", username, node);
 
         AbstractXMPPConnection connection = null;
 
@@ -39,8 +170,8 @@ public class AuthService {
             XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
                     .setUsernameAndPassword(username, password)
                     .setXmppDomain(openfireXmppDomain)
-                    .setHost(openfireXmppHost)
-                    .setPort(openfireXmppPort)
+                    .setHost(node.getHost())
+                    .setPort(node.getPort())
                     .setSecurityMode(ConnectionConfiguration.SecurityMode.ifpossible)
                     // FIX: Removed .setReplyTimeout(10000) from here
                     .build();
@@ -48,9 +179,10 @@ public class AuthService {
             connection = new XMPPTCPConnection(config);
 
             // FIX: Set the timeout on the connection object itself, before connecting.
-            connection.setReplyTimeout(10000); // 10 seconds
+            connection.setReplyTimeout(replyTimeoutMs);
 
             connection.connect();
+            node.readmit();
             connection.login();
             log.info("User {} authenticated successfully with Openfire.", username);
             return true;
@@ -61,7 +193,13 @@ public class AuthService {
         } catch (SASLErrorException e) {
             log.warn("Authentication failed for user {}: Invalid credentials.", username);
             return false;
-        } catch (SmackException | IOException | XMPPException | InterruptedException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (SmackException | IOException | XMPPException e) {
+            if (connection != null && !connection.isConnected()) {
+                return null;
+            }
             log.error("Failed to connect or login for user {} due to a connection/protocol error: {}", username, e.getMessage());
             return false;
         } finally {
@@ -70,4 +208,32 @@ public class AuthService {
             }
         }
     }
+
+    /**
+     * Changes how many Openfire sessions logins may open at once. Verifications already
+     * running finish on their thread.
+     */
+    public synchronized void setVerificationThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one verification thread is needed");
+        }
+        // The core size may never exceed the maximum, so the order depends on the direction.
+        if (threads > verificationPool.getMaximumPoolSize()) {
+            verificationPool.setMaximumPoolSize(threads);
+            verificationPool.setCorePoolSize(threads);
+        } else {
+            verificationPool.setCorePoolSize(threads);
+            verificationPool.setMaximumPoolSize(threads);
+        }
+        log.info("Login verification threads set to {}.", threads);
+    }
+
+    public int getVerificationThreads() {
+        return verificationPool.getMaximumPoolSize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        verificationPool.shutdownNow();
+    }
 }
\ No newline at end of file
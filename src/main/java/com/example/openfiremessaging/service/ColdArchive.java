@@ -0,0 +1,302 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.dto.HistoryCursor;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ColdMessage;
+import com.example.openfiremessaging.model.ColdSegment;
+import com.example.openfiremessaging.repository.ColdMessageRepository;
+import com.example.openfiremessaging.repository.ColdSegmentRepository;
+import com.example.openfiremessaging.repository.ConversationSummaryRepository;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The cold tier of the message archive: append-only segment files of gzip-compressed,
+ * newline-delimited JSON, indexed by {@link ColdSegment} rows per conversation chunk.
+ *
+ * {@link ColdTierMover} writes them; history paging reads them through
+ * {@link #before} and {@link #after} once it runs out of rows in
+ * {@code app_message_archive}, and downloads find single messages through their
+ * {@link ColdMessage} location. A chunk is small enough to be read and decompressed as a
+ * whole, so a cold page costs one index query plus one positioned read per chunk.
+ */
+@Component
+public class ColdArchive {
+
+    private static final Comparator<AppArchivedMessage> HISTORY_ORDER =
+            Comparator.comparing(AppArchivedMessage::getSentDate).thenComparing(AppArchivedMessage::getId);
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss").withZone(ZoneOffset.UTC);
+    // Chunks in one conversation are read newest (or oldest) first, a few per query.
+    private static final int SEGMENTS_PER_QUERY = 4;
+    private static final HistoryCursor BEGINNING = new HistoryCursor(Instant.EPOCH, 0);
+
+    @FunctionalInterface
+    public interface MessageConsumer {
+        void accept(AppArchivedMessage message) throws IOException;
+    }
+
+    private final ColdSegmentRepository coldSegmentRepository;
+    private final ColdMessageRepository coldMessageRepository;
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader messageReader;
+    private final MessagingMetrics messagingMetrics;
+    private final Path directory;
+
+    public ColdArchive(ColdSegmentRepository coldSegmentRepository,
+                       ColdMessageRepository coldMessageRepository,
+                       ConversationSummaryRepository conversationSummaryRepository,
+                       ObjectMapper objectMapper,
+                       MessagingMetrics messagingMetrics,
+                       @Value("${messaging.cold-tier.dir:./cold-archive}") String directory) {
+        this.coldSegmentRepository = coldSegmentRepository;
+        this.coldMessageRepository = coldMessageRepository;
+        this.conversationSummaryRepository = conversationSummaryRepository;
+        this.objectMapper = objectMapper;
+        this.messageReader = objectMapper.readerFor(AppArchivedMessage.class);
+        this.messagingMetrics = messagingMetrics;
+        this.directory = Paths.get(directory);
+    }
+
+    @PostConstruct
+    public void createDirectory() throws IOException {
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Up to {@code limit} cold messages of the conversation strictly before {@code before},
+     * or its newest cold messages without a cursor; oldest first.
+     */
+    public List<AppArchivedMessage> before(String conversationKey, HistoryCursor before, int limit) throws IOException {
+        Deque<AppArchivedMessage> collected = new ArrayDeque<>(limit);
+        HistoryCursor position = before;
+        while (collected.size() < limit) {
+            PageRequest fetch = PageRequest.of(0, SEGMENTS_PER_QUERY);
+            List<ColdSegment> segments = position == null
+                    ? coldSegmentRepository.findLatest(conversationKey, fetch)
+                    : coldSegmentRepository.findBefore(conversationKey, position.sentDate(), position.id(), fetch);
+            for (ColdSegment segment : segments) {
+                List<AppArchivedMessage> rows = read(segment);
+                for (int i = rows.size() - 1; i >= 0 && collected.size() < limit; i--) {
+                    if (before == null || compare(rows.get(i), before) < 0) {
+                        collected.addFirst(rows.get(i));
+                    }
+                }
+                if (collected.size() >= limit) {
+                    break;
+                }
+                position = new HistoryCursor(segment.getFirstSentDate(), segment.getFirstMessageId());
+            }
+            if (segments.size() < SEGMENTS_PER_QUERY) {
+                break;
+            }
+        }
+        return new ArrayList<>(collected);
+    }
+
+    /**
+     * Up to {@code limit} cold messages of the conversation strictly after {@code after}; oldest first.
+     */
+    public List<AppArchivedMessage> after(String conversationKey, HistoryCursor after, int limit) throws IOException {
+        List<AppArchivedMessage> collected = new ArrayList<>(limit);
+        HistoryCursor position = after;
+        while (collected.size() < limit) {
+            List<ColdSegment> segments = coldSegmentRepository.findAfter(conversationKey, position.sentDate(), position.id(),
+                    PageRequest.of(0, SEGMENTS_PER_QUERY));
+            for (ColdSegment segment : segments) {
+                for (AppArchivedMessage row : read(segment)) {
+                    if (collected.size() < limit && compare(row, after) > 0) {
+                        collected.add(row);
+                    }
+                }
+                if (collected.size() >= limit) {
+                    break;
+                }
+                position = new HistoryCursor(segment.getLastSentDate(), segment.getLastMessageId());
+            }
+            if (segments.size() < SEGMENTS_PER_QUERY) {
+                break;
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Passes every cold message of the conversation to {@code consumer}, oldest first,
+     * reading each chunk once. Returns the position of the last one, or null if there is
+     * none.
+     */
+    public HistoryCursor forEach(String conversationKey, MessageConsumer consumer) throws IOException {
+        HistoryCursor position = BEGINNING;
+        while (true) {
+            List<ColdSegment> segments = coldSegmentRepository.findAfter(conversationKey, position.sentDate(), position.id(),
+                    PageRequest.of(0, SEGMENTS_PER_QUERY));
+            for (ColdSegment segment : segments) {
+                for (AppArchivedMessage row : read(segment)) {
+                    consumer.accept(row);
+                }
+                position = new HistoryCursor(segment.getLastSentDate(), segment.getLastMessageId());
+            }
+            if (segments.size() < SEGMENTS_PER_QUERY) {
+                return position == BEGINNING ? null : position;
+            }
+        }
+    }
+
+    /**
+     * The cold message with {@code messageId}, if {@code participantJid} is part of its
+     * conversation. Reads at most the one chunk holding it, and none for anyone else.
+     */
+    public Optional<AppArchivedMessage> findById(long messageId, String participantJid) throws IOException {
+        Optional<ColdMessage> location = coldMessageRepository.findById(messageId);
+        if (location.isEmpty() || !conversationSummaryRepository.existsByOwnerJidAndConversationKey(
+                participantJid, location.get().getConversationKey())) {
+            return Optional.empty();
+        }
+        Optional<ColdSegment> segment = coldSegmentRepository.findById(location.get().getSegmentId());
+        if (segment.isEmpty()) {
+            return Optional.empty();
+        }
+        return read(segment.get()).stream().filter(row -> row.getId() == messageId).findFirst();
+    }
+
+    /**
+     * Segments in the order they were written, for jobs that walk the whole cold tier.
+     */
+    public List<ColdSegment> segmentsAfter(long afterSegmentId, int limit) {
+        return coldSegmentRepository.findAfterId(afterSegmentId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * The messages of one chunk, oldest first.
+     */
+    public List<AppArchivedMessage> read(ColdSegment segment) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(segment.getByteLength());
+        try (FileChannel channel = FileChannel.open(directory.resolve(segment.getFileName()), StandardOpenOption.READ)) {
+            long position = segment.getByteOffset();
+            while (compressed.hasRemaining()) {
+                int read = channel.read(compressed, position);
+                if (read < 0) {
+                    throw new EOFException("Cold segment " + segment.getId() + " is truncated in " + segment.getFileName());
+                }
+                position += read;
+            }
+        }
+        List<AppArchivedMessage> rows = new ArrayList<>(segment.getMessageCount());
+        try (MappingIterator<AppArchivedMessage> lines = messageReader.readValues(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.array())))) {
+            while (lines.hasNextValue()) {
+                rows.add(lines.nextValue());
+            }
+        }
+        messagingMetrics.recordColdSegmentRead();
+        return rows;
+    }
+
+    /**
+     * Starts a new segment file for one run of the mover.
+     */
+    public SegmentFile openSegmentFile() throws IOException {
+        String fileName = "segment-" + FILE_TIMESTAMP.format(Instant.now()) + "-"
+                + UUID.randomUUID().toString().substring(0, 8) + ".ndjson.gz";
+        return new SegmentFile(fileName);
+    }
+
+    private static int compare(AppArchivedMessage row, HistoryCursor cursor) {
+        int bySentDate = row.getSentDate().compareTo(cursor.sentDate());
+        return bySentDate != 0 ? bySentDate : Long.compare(row.getId(), cursor.id());
+    }
+
+    /**
+     * An append-only segment file. Each {@link #append} adds one gzip member and forces it
+     * to disk before returning, so the index row pointing at it can be committed safely; a
+     * member whose index row never commits is unreachable and harmless.
+     */
+    public final class SegmentFile implements Closeable {
+        private final String fileName;
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+
+        private SegmentFile(String fileName) throws IOException {
+            this.fileName = fileName;
+            this.path = directory.resolve(fileName);
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Writes the rows of one conversation and returns the (unsaved) index row for them.
+         */
+        public ColdSegment append(String conversationKey, List<AppArchivedMessage> rows) throws IOException {
+            List<AppArchivedMessage> ordered = new ArrayList<>(rows);
+            ordered.sort(HISTORY_ORDER);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                for (AppArchivedMessage row : ordered) {
+                    gzip.write(objectMapper.writeValueAsBytes(row));
+                    gzip.write('\n');
+                }
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            long offset = size;
+            while (bytes.hasRemaining()) {
+                size += channel.write(bytes, size);
+            }
+            channel.force(false);
+
+            AppArchivedMessage first = ordered.get(0);
+            AppArchivedMessage last = ordered.get(ordered.size() - 1);
+            ColdSegment segment = new ColdSegment();
+            segment.setConversationKey(conversationKey);
+            segment.setFileName(fileName);
+            segment.setByteOffset(offset);
+            segment.setByteLength(buffer.size());
+            segment.setMessageCount(ordered.size());
+            segment.setFirstSentDate(first.getSentDate());
+            segment.setFirstMessageId(first.getId());
+            segment.setLastSentDate(last.getSentDate());
+            segment.setLastMessageId(last.getId());
+            segment.setCreatedAt(Instant.now());
+            return segment;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (size == 0) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
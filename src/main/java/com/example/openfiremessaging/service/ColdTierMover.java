@@ -0,0 +1,152 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ColdSegment;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.repository.ColdMessageRepository;
+import com.example.openfiremessaging.repository.ColdSegmentRepository;
+import com.example.openfiremessaging.repository.ConversationSummaryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Moves messages older than {@code messaging.cold-tier.age-days} out of
+ * {@code app_message_archive} into the {@link ColdArchive}, so the hot table and its
+ * indexes stay proportional to recent traffic.
+ *
+ * Each run writes one new segment file. Conversations are taken from the inbox summaries
+ * and each is moved oldest first in chunks of {@code chunk-size} messages: the chunk is
+ * appended to the file and forced to disk, then its index row and the per-message
+ * locations are inserted and the rows are deleted in one transaction. If the delete does not remove exactly the rows that
+ * were written (another instance moved them first) the transaction rolls back and the
+ * chunk's bytes are simply never referenced.
+ *
+ * Moved rows keep their attachment references; history, downloads and the search index
+ * rebuild read them back from the cold tier.
+ */
+@Slf4j
+@Component
+public class ColdTierMover {
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final ColdSegmentRepository coldSegmentRepository;
+    private final ColdMessageRepository coldMessageRepository;
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final ConversationKeyBackfill conversationKeyBackfill;
+    private final ColdArchive coldArchive;
+    private final TransactionTemplate transactionTemplate;
+    private final DownstreamLimits downstreamLimits;
+    private final MessagingMetrics messagingMetrics;
+    private final boolean enabled;
+    private final Duration age;
+    private final int chunkSize;
+    private final int batchSize;
+    private final long pauseMs;
+
+    public ColdTierMover(AppArchivedMessageRepository appArchivedMessageRepository,
+                         ColdSegmentRepository coldSegmentRepository,
+                         ColdMessageRepository coldMessageRepository,
+                         ConversationSummaryRepository conversationSummaryRepository,
+                         ConversationKeyBackfill conversationKeyBackfill,
+                         ColdArchive coldArchive,
+                         TransactionTemplate transactionTemplate,
+                         DownstreamLimits downstreamLimits,
+                         MessagingMetrics messagingMetrics,
+                         @Value("${messaging.cold-tier.enabled:false}") boolean enabled,
+                         @Value("${messaging.cold-tier.age-days:180}") long ageDays,
+                         @Value("${messaging.cold-tier.chunk-size:500}") int chunkSize,
+                         @Value("${messaging.cold-tier.batch-size:1000}") int batchSize,
+                         @Value("${messaging.cold-tier.pause-ms:20}") long pauseMs) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.coldSegmentRepository = coldSegmentRepository;
+        this.coldMessageRepository = coldMessageRepository;
+        this.conversationSummaryRepository = conversationSummaryRepository;
+        this.conversationKeyBackfill = conversationKeyBackfill;
+        this.coldArchive = coldArchive;
+        this.transactionTemplate = transactionTemplate;
+        this.downstreamLimits = downstreamLimits;
+        this.messagingMetrics = messagingMetrics;
+        this.enabled = enabled;
+        this.age = Duration.ofDays(ageDays);
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    @Scheduled(fixedDelayString = "${messaging.cold-tier.interval-ms:86400000}",
+            initialDelayString = "${messaging.cold-tier.initial-delay-ms:600000}")
+    public void moveOldMessages() {
+        // Rows without a conversation key cannot be found by conversation, in either tier.
+        if (!enabled || !conversationKeyBackfill.isComplete()) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(age);
+        long moved = 0;
+        try (ColdArchive.SegmentFile file = coldArchive.openSegmentFile()) {
+            String afterKey = "";
+            while (true) {
+                String after = afterKey;
+                List<String> keys = downstreamLimits.jdbc().call(() ->
+                        conversationSummaryRepository.findConversationKeysAfter(after, PageRequest.of(0, batchSize)));
+                if (keys.isEmpty()) {
+                    break;
+                }
+                for (String key : keys) {
+                    moved += moveConversation(file, key, cutoff);
+                }
+                afterKey = keys.get(keys.size() - 1);
+            }
+            if (moved > 0) {
+                log.info("Moved {} message(s) sent before {} to the cold tier.", moved, cutoff);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Cold tier move interrupted after {} message(s).", moved);
+        } catch (Exception e) {
+            log.error("Cold tier move failed after {} message(s).", moved, e);
+        }
+    }
+
+    private long moveConversation(ColdArchive.SegmentFile file, String conversationKey, Instant cutoff) throws Exception {
+        long moved = 0;
+        while (true) {
+            List<Long> ids = downstreamLimits.jdbc().call(() ->
+                    appArchivedMessageRepository.findOldestIdsBefore(conversationKey, cutoff, PageRequest.of(0, chunkSize)));
+            if (ids.isEmpty()) {
+                return moved;
+            }
+            List<AppArchivedMessage> rows = downstreamLimits.jdbc().call(() -> appArchivedMessageRepository.findAllByIdOrdered(ids));
+            ColdSegment segment = file.append(conversationKey, rows);
+            try {
+                downstreamLimits.jdbc().run(() -> transactionTemplate.executeWithoutResult(status -> {
+                    coldSegmentRepository.save(segment);
+                    coldMessageRepository.insertLocations(segment.getId(), ids);
+                    int deleted = appArchivedMessageRepository.deleteByIds(ids);
+                    if (deleted != ids.size()) {
+                        throw new IllegalStateException("Expected to move " + ids.size() + " message(s) but "
+                                + deleted + " were still in the archive");
+                    }
+                }));
+            } catch (IllegalStateException e) {
+                log.warn("Skipping conversation {} in this cold tier run: {}", conversationKey, e.getMessage());
+                return moved;
+            }
+            messagingMetrics.recordColdTierMove(rows.size());
+            moved += rows.size();
+            if (ids.size() < chunkSize) {
+                return moved;
+            }
+            Thread.sleep(pauseMs);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.dto.HistoryCursor;
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ConversationKeys;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Streams a whole conversation as newline-delimited JSON, oldest message first, for
+ * support and compliance exports.
+ *
+ * Nothing is collected along the way: cold chunks are decoded one at a time, then the
+ * archive table is read through a forward-only JPA stream, with a JDBC fetch size so the
+ * driver pulls rows in batches (MySQL needs {@code useCursorFetch=true} for that). Every
+ * {@code flush-rows} messages the output is flushed and the persistence context cleared,
+ * so memory stays flat however long the conversation is and the first bytes leave as
+ * soon as the first batch has been read.
+ *
+ * Both tiers are read in one read-only REPEATABLE READ transaction. The cold tier mover
+ * inserts a chunk's index row and deletes its archive rows in a single transaction, so
+ * the export's snapshot has every message in exactly one of the two tiers.
+ */
+@Slf4j
+@Service
+public class ConversationExporter {
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final ColdArchive coldArchive;
+    private final ConversationKeyBackfill conversationKeyBackfill;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter messageWriter;
+    private final DownstreamLimits downstreamLimits;
+    private final MessagingMetrics messagingMetrics;
+    private final int flushRows;
+
+    public ConversationExporter(AppArchivedMessageRepository appArchivedMessageRepository,
+                                ColdArchive coldArchive,
+                                ConversationKeyBackfill conversationKeyBackfill,
+                                EntityManager entityManager,
+                                PlatformTransactionManager transactionManager,
+                                ObjectMapper objectMapper,
+                                DownstreamLimits downstreamLimits,
+                                MessagingMetrics messagingMetrics,
+                                @Value("${messaging.export.flush-rows:500}") int flushRows) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.coldArchive = coldArchive;
+        this.conversationKeyBackfill = conversationKeyBackfill;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.readOnlyTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.objectMapper = objectMapper;
+        // Flushing is paced by flush-rows, not done after every message.
+        this.messageWriter = objectMapper.writerFor(AppArchivedMessage.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.downstreamLimits = downstreamLimits;
+        this.messagingMetrics = messagingMetrics;
+        this.flushRows = flushRows;
+    }
+
+    /**
+     * Writes the conversation between {@code ownerJid} and {@code withJid} to {@code out}
+     * and returns the number of messages written. The stream is flushed, not closed.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException before anything is written,
+     *                                                         if too many exports are running
+     */
+    public long export(String ownerJid, String withJid, OutputStream out) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long written = downstreamLimits.export().call(() ->
+                downstreamLimits.jdbc().call(() -> write(ownerJid, withJid, out)));
+        messagingMetrics.recordExport(written, System.nanoTime() - start);
+        log.info("Exported {} message(s) between {} and {}.", written, ownerJid, withJid);
+        return written;
+    }
+
+    private long write(String ownerJid, String withJid, OutputStream out) throws IOException {
+        boolean byConversationKey = conversationKeyBackfill.isComplete();
+        String key = ConversationKeys.of(ownerJid, withJid);
+        try (JsonGenerator json = objectMapper.createGenerator(out)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.setRootValueSeparator(null);
+            MessageLines lines = new MessageLines(json);
+
+            try {
+                readOnlyTransaction.executeWithoutResult(status -> {
+                    try {
+                        // The cold tier only exists once every row has a conversation key.
+                        HistoryCursor lastCold = byConversationKey ? coldArchive.forEach(key, lines::write) : null;
+                        entityManager.clear();
+                        try (Stream<AppArchivedMessage> rows = !byConversationKey
+                                ? appArchivedMessageRepository.streamByParticipants(ownerJid, withJid)
+                                : lastCold != null
+                                ? appArchivedMessageRepository.streamConversationAfter(key, lastCold.sentDate(), lastCold.id())
+                                : appArchivedMessageRepository.streamConversation(key)) {
+                            Iterator<AppArchivedMessage> iterator = rows.iterator();
+                            while (iterator.hasNext()) {
+                                if (lines.write(iterator.next())) {
+                                    entityManager.clear();
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return lines.written;
+        }
+    }
+
+    /**
+     * Writes one message per line. Flushes after the first line, so the response starts
+     * right away, and then every {@code flushRows} lines.
+     */
+    private final class MessageLines {
+        private final JsonGenerator json;
+        private long written;
+
+        private MessageLines(JsonGenerator json) {
+            this.json = json;
+        }
+
+        /**
+         * Returns true if the output was flushed after this message.
+         */
+        private boolean write(AppArchivedMessage message) throws IOException {
+            messageWriter.writeValue(json, message);
+            json.writeRaw('\n');
+            if (++written % flushRows != 0 && written != 1) {
+                return false;
+            }
+            json.flush();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.model.ConversationKeys;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Fills in {@code conversationKey} for archive rows written before the column existed.
+ *
+ * Runs online in the background after startup: it walks the primary key in small
+ * batches, each in its own short transaction, so only the rows of the current batch are
+ * ever locked and normal traffic keeps flowing. Until it has finished, history reads
+ * stay on the legacy two-way predicate so that no message is missed.
+ */
+@Slf4j
+@Component
+public class ConversationKeyBackfill {
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pauseMs;
+
+    private volatile boolean complete;
+
+    public ConversationKeyBackfill(AppArchivedMessageRepository appArchivedMessageRepository,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${messaging.conversation-key-backfill.enabled:true}") boolean enabled,
+                                   @Value("${messaging.conversation-key-backfill.batch-size:1000}") int batchSize,
+                                   @Value("${messaging.conversation-key-backfill.pause-ms:50}") long pauseMs) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    /**
+     * True once every archive row carries a conversation key.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!appArchivedMessageRepository.existsByConversationKeyIsNull()) {
+            complete = true;
+            return;
+        }
+        if (!enabled) {
+            log.warn("Archive rows without a conversation key exist but the backfill is disabled; " +
+                    "history reads stay on the legacy query.");
+            return;
+        }
+        Thread worker = new Thread(this::run, "conversation-key-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        log.info("Starting conversation key backfill in batches of {}.", batchSize);
+        long lastId = 0;
+        long updated = 0;
+        try {
+            while (true) {
+                List<Object[]> rows = appArchivedMessageRepository.findMissingConversationKey(lastId, PageRequest.of(0, batchSize));
+                if (rows.isEmpty()) {
+                    break;
+                }
+                lastId = (Long) rows.get(rows.size() - 1)[0];
+                updated += backfillBatch(rows);
+                Thread.sleep(pauseMs);
+            }
+            // Rows inserted since the backfill started already carry a key, so this is the end state.
+            complete = !appArchivedMessageRepository.existsByConversationKeyIsNull();
+            log.info("Conversation key backfill finished after updating {} row(s); complete: {}", updated, complete);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Conversation key backfill interrupted after updating {} row(s).", updated);
+        } catch (Exception e) {
+            log.error("Conversation key backfill failed after updating {} row(s).", updated, e);
+        }
+    }
+
+    private int backfillBatch(List<Object[]> rows) {
+        Map<String, List<Long>> idsByKey = new HashMap<>();
+        for (Object[] row : rows) {
+            String key = ConversationKeys.of(Objects.toString(row[1], ""), Objects.toString(row[2], ""));
+            idsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add((Long) row[0]);
+        }
+        Integer count = transactionTemplate.execute(status -> {
+            int batchUpdated = 0;
+            for (Map.Entry<String, List<Long>> entry : idsByKey.entrySet()) {
+                batchUpdated += appArchivedMessageRepository.assignConversationKey(entry.getKey(), entry.getValue());
+            }
+            return batchUpdated;
+        });
+        return count == null ? 0 : count;
+    }
+}
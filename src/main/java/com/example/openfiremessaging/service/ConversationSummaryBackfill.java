@@ -0,0 +1,102 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.repository.ConversationSummaryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Builds the inbox summaries for an archive that predates them.
+ *
+ * Runs once, in the background after startup, when the summary table is empty but the
+ * archive is not. It replays the archive up to the newest id present at startup in
+ * primary key order, in small transactions, with all replayed messages taken as read.
+ * Live sends keep updating summaries meanwhile; a summary only ever moves to a newer
+ * message, so the replay never overwrites what they wrote. An interrupted run is not
+ * resumed: empty {@code app_conversation_summary} to start it again.
+ */
+@Slf4j
+@Component
+public class ConversationSummaryBackfill {
+
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final InboxService inboxService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pauseMs;
+
+    public ConversationSummaryBackfill(AppArchivedMessageRepository appArchivedMessageRepository,
+                                       ConversationSummaryRepository conversationSummaryRepository,
+                                       InboxService inboxService,
+                                       TransactionTemplate transactionTemplate,
+                                       @Value("${messaging.inbox.backfill.enabled:true}") boolean enabled,
+                                       @Value("${messaging.inbox.backfill.batch-size:1000}") int batchSize,
+                                       @Value("${messaging.inbox.backfill.pause-ms:50}") long pauseMs) {
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.conversationSummaryRepository = conversationSummaryRepository;
+        this.inboxService = inboxService;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || conversationSummaryRepository.count() > 0) {
+            return;
+        }
+        Long upToId = appArchivedMessageRepository.findMaxId();
+        if (upToId == null) {
+            return;
+        }
+        Thread worker = new Thread(() -> run(upToId), "conversation-summary-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run(long upToId) {
+        log.info("Building conversation summaries from the archive in batches of {}.", batchSize);
+        long lastId = 0;
+        long replayed = 0;
+        try {
+            while (true) {
+                List<AppArchivedMessage> rows = appArchivedMessageRepository.findRange(lastId, upToId, PageRequest.of(0, batchSize));
+                if (rows.isEmpty()) {
+                    break;
+                }
+                replayBatch(rows);
+                lastId = rows.get(rows.size() - 1).getId();
+                replayed += rows.size();
+                Thread.sleep(pauseMs);
+            }
+            log.info("Conversation summary backfill finished after replaying {} message(s).", replayed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Conversation summary backfill interrupted after replaying {} message(s).", replayed);
+        } catch (Exception e) {
+            log.error("Conversation summary backfill failed after replaying {} message(s).", replayed, e);
+        }
+    }
+
+    private void replayBatch(List<AppArchivedMessage> rows) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> inboxService.recordArchived(rows, false));
+        } catch (DataIntegrityViolationException | OptimisticLockingFailureException e) {
+            // A live send created or moved one of these summaries at the same moment.
+            transactionTemplate.executeWithoutResult(status -> inboxService.recordArchived(rows, false));
+        }
+    }
+}
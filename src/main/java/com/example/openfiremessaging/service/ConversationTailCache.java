@@ -0,0 +1,237 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The newest messages of recently opened conversations, so re-opening a chat is answered
+ * from memory instead of the archive.
+ *
+ * A tail is loaded on the first read of a conversation and from then on kept current by
+ * this instance's send path, which appends every row it commits. Reads and appends for
+ * one conversation are serialized through {@code compute}, and every append bumps a
+ * striped stamp first: a read that loaded from the database while an append was
+ * committing sees the stamp move and does not cache its (possibly stale) rows.
+ *
+ * Rows committed by other instances never reach this cache, and ids are only time
+ * ordered per instance, so a row from elsewhere can land anywhere in a tail. Every read
+ * therefore {@linkplain #revalidate revalidates} a cached tail against the newest ids in
+ * the archive index first, which is one index-only range scan instead of loading the
+ * rows. The history ETag is derived from the ids of the page, not just the newest one.
+ */
+@Component
+public class ConversationTailCache {
+
+    private static final int STAMP_STRIPES = 1024;
+    private static final Comparator<AppArchivedMessage> ARCHIVE_ORDER =
+            Comparator.comparing(AppArchivedMessage::getSentDate).thenComparing(AppArchivedMessage::getId);
+
+    private final MessagingMetrics messagingMetrics;
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final int tailSize;
+    private final int maxConversations;
+    private final long idleMs;
+    private volatile long lastPurgeMillis;
+
+    public ConversationTailCache(MessagingMetrics messagingMetrics,
+                                 @Value("${messaging.history.tail-cache.messages:50}") int tailSize,
+                                 @Value("${messaging.history.tail-cache.max-conversations:10000}") int maxConversations,
+                                 @Value("${messaging.history.tail-cache.idle-ms:600000}") long idleMs) {
+        this.messagingMetrics = messagingMetrics;
+        this.tailSize = tailSize;
+        this.maxConversations = maxConversations;
+        this.idleMs = idleMs;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        messagingMetrics.gauge("messaging.history.tail_cache.conversations", "Conversations with a cached tail",
+                tails, Map::size);
+    }
+
+    /**
+     * How many of the newest messages are kept per conversation; larger pages bypass the cache.
+     */
+    public int getTailSize() {
+        return tailSize;
+    }
+
+    /**
+     * The cached tail, which must be {@linkplain #revalidate revalidated} before use.
+     */
+    public Tail get(String conversationKey) {
+        Tail tail = tails.get(conversationKey);
+        if (tail != null) {
+            tail.lastAccessMillis = System.currentTimeMillis();
+        } else {
+            messagingMetrics.recordHistoryTailCache(false);
+        }
+        return tail;
+    }
+
+    /**
+     * Checks a cached tail against the newest archive ids of its conversation, newest
+     * first and at most {@link #getTailSize} of them. Returns false, and drops the tail,
+     * if a row was added or removed elsewhere; the caller then loads it again.
+     */
+    public boolean revalidate(String conversationKey, Tail tail, List<Long> newestIds) {
+        boolean current = tail.matches(newestIds);
+        if (!current) {
+            tails.remove(conversationKey, tail);
+        }
+        messagingMetrics.recordHistoryTailCache(current);
+        return current;
+    }
+
+    /**
+     * Taken before loading a tail from the database and handed back to {@link #populate}.
+     */
+    public long stamp(String conversationKey) {
+        return stamps.get(stripe(conversationKey));
+    }
+
+    /**
+     * Caches a tail loaded from the database, oldest message first, unless the
+     * conversation changed since {@code stamp} was taken. Returns the tail either way.
+     *
+     * @param complete whether {@code rows} is the whole conversation
+     */
+    public Tail populate(String conversationKey, long stamp, List<AppArchivedMessage> rows, boolean complete) {
+        Tail loaded = new Tail(List.copyOf(rows), complete);
+        if (!hasRoom()) {
+            return loaded;
+        }
+        Tail cached = tails.compute(conversationKey, (key, current) -> {
+            if (current != null) {
+                return current;
+            }
+            return stamps.get(stripe(key)) == stamp ? loaded : null;
+        });
+        return cached != null ? cached : loaded;
+    }
+
+    /**
+     * Adds a row that has just been committed to its conversation's tail, if cached.
+     */
+    public void append(AppArchivedMessage row) {
+        String conversationKey = row.getConversationKey();
+        if (conversationKey == null) {
+            return;
+        }
+        tails.compute(conversationKey, (key, current) -> {
+            stamps.incrementAndGet(stripe(key));
+            return current != null ? current.with(row, tailSize) : null;
+        });
+    }
+
+    private boolean hasRoom() {
+        if (tails.size() < maxConversations) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        // Sweeping is O(size), so do it at most once a second however many misses arrive.
+        if (now - lastPurgeMillis >= 1000) {
+            lastPurgeMillis = now;
+            tails.values().removeIf(t -> now - t.lastAccessMillis >= idleMs);
+        }
+        // Still full of active conversations: serve from the database rather than grow without bound.
+        return tails.size() < maxConversations;
+    }
+
+    private static int stripe(String conversationKey) {
+        return Math.floorMod(conversationKey.hashCode(), STAMP_STRIPES);
+    }
+
+    /**
+     * An immutable snapshot of the newest messages of a conversation, oldest first.
+     */
+    public static final class Tail {
+        private final List<AppArchivedMessage> rows;
+        private final boolean complete;
+        private volatile long lastAccessMillis = System.currentTimeMillis();
+
+        private Tail(List<AppArchivedMessage> rows, boolean complete) {
+            this.rows = rows;
+            this.complete = complete;
+        }
+
+        public List<AppArchivedMessage> getRows() {
+            return rows;
+        }
+
+        /**
+         * Whether older messages exist beyond the cached ones.
+         */
+        public boolean hasOlder() {
+            return !complete;
+        }
+
+        /**
+         * Entity tag of the newest {@code pageSize} messages, a hash of their ids. Weak,
+         * because the page is the same whether or not it is sent compressed, and Tomcat
+         * only compresses responses without a strong tag.
+         */
+        public String etag(int pageSize) {
+            long hash = 0;
+            for (int i = Math.max(0, rows.size() - pageSize); i < rows.size(); i++) {
+                hash = 31 * hash + rows.get(i).getId();
+            }
+            return "W/\"" + Long.toString(hash & Long.MAX_VALUE, 36) + "-" + pageSize + "\"";
+        }
+
+        /**
+         * Whether the newest rows are exactly {@code newestIds}, newest first. Cached rows
+         * beyond them are older ones that came from the cold archive.
+         */
+        private boolean matches(List<Long> newestIds) {
+            if (newestIds.size() > rows.size()) {
+                return false;
+            }
+            for (int i = 0; i < newestIds.size(); i++) {
+                if (!newestIds.get(i).equals(rows.get(rows.size() - 1 - i).getId())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Tail with(AppArchivedMessage row, int tailSize) {
+            for (AppArchivedMessage cached : rows) {
+                if (cached.getId().equals(row.getId())) {
+                    // Loaded from the database between its commit and this append.
+                    return this;
+                }
+            }
+            List<AppArchivedMessage> updated = new ArrayList<>(rows.size() + 1);
+            updated.addAll(rows);
+            // Concurrent senders can commit slightly out of sentDate order, so insert in place.
+            int position = updated.size();
+            while (position > 0 && ARCHIVE_ORDER.compare(updated.get(position - 1), row) > 0) {
+                position--;
+            }
+            boolean olderThanTail = position == 0 && !complete && !updated.isEmpty();
+            boolean truncated = !complete;
+            if (!olderThanTail) {
+                updated.add(position, row);
+                if (updated.size() > tailSize) {
+                    updated.remove(0);
+                    truncated = true;
+                }
+            }
+            Tail next = new Tail(List.copyOf(updated), !truncated);
+            next.lastAccessMillis = lastAccessMillis;
+            return next;
+        }
+    }
+}
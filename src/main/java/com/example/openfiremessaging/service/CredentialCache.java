@@ -0,0 +1,87 @@
+package com.example.openfiremessaging.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Short-lived memory of credentials Openfire has recently accepted.
+ *
+ * Passwords are never kept: each entry holds a random salt and the HMAC-SHA256 of the
+ * password under that salt, and expires after a fixed TTL. Only successful checks are
+ * cached, so a wrong password always goes to Openfire.
+ */
+class CredentialCache {
+
+    private static final int SALT_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    // Process-wide secret for fingerprints, so in-flight keys reveal nothing outside this JVM.
+    private final byte[] pepper = new byte[32];
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMs;
+    private final int maxSize;
+
+    CredentialCache(long ttlMs, int maxSize) {
+        this.ttlMs = ttlMs;
+        this.maxSize = maxSize;
+        random.nextBytes(pepper);
+    }
+
+    boolean matches(String username, String password) {
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+            entries.remove(username, entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.hash, hmac(entry.salt, username, password));
+    }
+
+    void put(String username, String password) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxSize) {
+            entries.values().removeIf(e -> e.expiresAtMillis <= now);
+            if (entries.size() >= maxSize) {
+                return;
+            }
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        entries.put(username, new Entry(salt, hmac(salt, username, password), now + ttlMs));
+    }
+
+    /**
+     * A stable key for a (username, password) pair, used to coalesce identical logins.
+     */
+    String fingerprint(String username, String password) {
+        return HexFormat.of().formatHex(hmac(pepper, username, password));
+    }
+
+    private static byte[] hmac(byte[] key, String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private record Entry(byte[] salt, byte[] hash, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.dto.InboxPage;
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ConversationKeys;
+import com.example.openfiremessaging.model.ConversationSummary;
+import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.repository.ConversationSummaryRepository;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The per-user list of conversations, backed by {@link ConversationSummary} rows.
+ *
+ * {@link #recordArchived} runs inside the archive writer's transaction: every committed
+ * message moves its sender's and its recipient's summary forward, so reading the inbox
+ * never aggregates over the archive. A batch is folded per (owner, peer), its summaries
+ * are loaded with one query by conversation key (two rows per pair) and changed as
+ * managed entities, so Hibernate sends the
+ * updates and inserts as JDBC batches together with the archive rows. (Bulk JPQL updates
+ * would flush the session once per statement and break up the archive batch.)
+ */
+@Slf4j
+@Service
+public class InboxService {
+
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final AppArchivedMessageRepository appArchivedMessageRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final DownstreamLimits downstreamLimits;
+    private final int defaultLimit;
+    private final int maxLimit;
+
+    public InboxService(ConversationSummaryRepository conversationSummaryRepository,
+                        AppArchivedMessageRepository appArchivedMessageRepository,
+                        EntityManager entityManager,
+                        TransactionTemplate transactionTemplate,
+                        DownstreamLimits downstreamLimits,
+                        @Value("${messaging.inbox.default-limit:20}") int defaultLimit,
+                        @Value("${messaging.inbox.max-limit:100}") int maxLimit) {
+        this.conversationSummaryRepository = conversationSummaryRepository;
+        this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.downstreamLimits = downstreamLimits;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Applies freshly inserted archive rows to the conversation summaries. Must be called
+     * in the transaction that inserted them, with the rows in id order.
+     *
+     * @param countUnread false when replaying old messages, which are taken as read
+     */
+    public void recordArchived(List<AppArchivedMessage> rows, boolean countUnread) {
+        Map<ConversationSummary.Key, SummaryUpdate> updates = new LinkedHashMap<>();
+        for (AppArchivedMessage row : rows) {
+            String from = bareJid(row.getFromJid());
+            String to = bareJid(row.getToJid());
+            if (from == null || to == null) {
+                continue;
+            }
+            updates.computeIfAbsent(new ConversationSummary.Key(from, to), k -> new SummaryUpdate()).sent(row);
+            if (!from.equals(to)) {
+                updates.computeIfAbsent(new ConversationSummary.Key(to, from), k -> new SummaryUpdate())
+                        .received(row, countUnread);
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        Set<String> conversationKeys = new HashSet<>();
+        updates.keySet().forEach(key -> conversationKeys.add(ConversationKeys.of(key.getOwnerJid(), key.getPeerJid())));
+        Map<ConversationSummary.Key, ConversationSummary> existing = new HashMap<>();
+        for (ConversationSummary summary : conversationSummaryRepository.findByConversationKeyIn(conversationKeys)) {
+            existing.put(new ConversationSummary.Key(summary.getOwnerJid(), summary.getPeerJid()), summary);
+        }
+        updates.forEach((key, update) -> apply(key, existing.get(key), update, countUnread));
+    }
+
+    public InboxPage getInbox(String ownerJid, String before, Integer limit) throws InterruptedException {
+        long beforeId;
+        try {
+            beforeId = before != null ? Long.parseLong(before) : 0;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed inbox cursor");
+        }
+        int pageSize = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        // One extra row tells whether there is more beyond this page.
+        PageRequest fetch = PageRequest.of(0, pageSize + 1);
+        List<ConversationSummary> conversations = downstreamLimits.jdbc().call(() -> before != null
+                ? conversationSummaryRepository.findBefore(ownerJid, beforeId, fetch)
+                : conversationSummaryRepository.findLatest(ownerJid, fetch));
+
+        boolean hasMore = conversations.size() > pageSize;
+        if (hasMore) {
+            conversations = new ArrayList<>(conversations.subList(0, pageSize));
+        }
+        String nextCursor = conversations.isEmpty()
+                ? before
+                : String.valueOf(conversations.get(conversations.size() - 1).getLastMessageId());
+        return new InboxPage(conversations, nextCursor, hasMore);
+    }
+
+    /**
+     * Marks the conversation with {@code peerJid} as read. With {@code upToMessageId}, only
+     * messages up to that id count as read, so one that arrived after the client rendered
+     * the conversation stays unread.
+     */
+    public void markRead(String ownerJid, String peerJid, Long upToMessageId) throws InterruptedException {
+        String peer = bareJid(peerJid);
+        downstreamLimits.jdbc().run(() -> transactionTemplate.executeWithoutResult(status -> {
+            if (conversationSummaryRepository.markRead(ownerJid, peer, upToMessageId != null ? upToMessageId : Long.MAX_VALUE) > 0) {
+                return;
+            }
+            if (upToMessageId != null) {
+                // Newer messages arrived after upTo: recount just those.
+                long unread = appArchivedMessageRepository.countFromAfter(ConversationKeys.of(ownerJid, peer), peer, upToMessageId);
+                conversationSummaryRepository.setUnread(ownerJid, peer, unread);
+            }
+        }));
+    }
+
+    private void apply(ConversationSummary.Key key, ConversationSummary summary, SummaryUpdate update, boolean countUnread) {
+        AppArchivedMessage last = update.last;
+        boolean newer = summary == null || summary.getLastMessageId() < last.getId();
+        if (!newer && !countUnread) {
+            // A replay of messages the summary already covers, e.g. a live send overtook the backfill.
+            return;
+        }
+        if (summary == null) {
+            summary = new ConversationSummary();
+            summary.setOwnerJid(key.getOwnerJid());
+            summary.setPeerJid(key.getPeerJid());
+            summary.setConversationKey(ConversationKeys.of(key.getOwnerJid(), key.getPeerJid()));
+            entityManager.persist(summary);
+        }
+        // Ids are only time ordered per instance, so a live message committed elsewhere can be
+        // older than the one shown; it still counts as unread, it just does not replace it.
+        if (newer) {
+            summary.setLastMessageId(last.getId());
+            summary.setLastFromJid(bareJid(last.getFromJid()));
+            summary.setLastBody(preview(last.getBody()));
+            summary.setLastMessageType(last.getMessageType());
+            summary.setLastSentDate(last.getSentDate());
+        }
+        // The owner's own reply marks the conversation read.
+        summary.setUnreadCount((update.keepUnread ? summary.getUnreadCount() : 0) + update.addUnread);
+    }
+
+    private static String preview(String body) {
+        return body != null && body.length() > ConversationSummary.PREVIEW_LENGTH
+                ? body.substring(0, ConversationSummary.PREVIEW_LENGTH)
+                : body;
+    }
+
+    private static String bareJid(String jid) {
+        int slash = jid != null ? jid.indexOf('/') : -1;
+        return slash >= 0 ? jid.substring(0, slash) : jid;
+    }
+
+    /**
+     * What one batch does to one summary: its newest message, and either an increment of
+     * the unread count or, if the owner sent something, a reset followed by the messages
+     * received after the owner's last one.
+     */
+    private static final class SummaryUpdate {
+        private AppArchivedMessage last;
+        private boolean keepUnread = true;
+        private long addUnread;
+
+        private void sent(AppArchivedMessage row) {
+            last = row;
+            keepUnread = false;
+            addUnread = 0;
+        }
+
+        private void received(AppArchivedMessage row, boolean countUnread) {
+            last = row;
+            if (countUnread) {
+                addUnread++;
+            }
+        }
+    }
+}
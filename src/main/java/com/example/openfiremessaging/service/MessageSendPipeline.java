@@ -0,0 +1,359 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.dto.DeliveryStatus;
+import com.example.openfiremessaging.dto.DeliveryStatusDto;
+import com.example.openfiremessaging.dto.MessageDto;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.xmpp.XmppConnectionPool;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.packet.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Asynchronous send path: requests are validated and queued on the servlet thread, then
+ * worker stages drain the queue in batches. The send stage pipelines a batch of stanzas
+ * over one pooled connection; the archive stage stores attachments and hands the whole
+ * batch of archive rows to the {@link ArchiveWriter} for batched inserts.
+ */
+@Slf4j
+@Service
+public class MessageSendPipeline {
+
+    private static final long POLL_MS = 200;
+
+    private final MessageService messageService;
+    private final XmppConnectionPool xmppConnectionPool;
+    private final MessagingMetrics messagingMetrics;
+    private final BlockingQueue<OutboundMessage> sendQueue;
+    private final BlockingQueue<OutboundMessage> archiveQueue;
+    private final Map<String, OutboundMessage> tracked = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final int sendWorkers;
+    private final int archiveWorkers;
+    private final Duration statusRetention;
+    private final boolean virtualThreads;
+    private final long drainTimeoutMs;
+
+    private volatile boolean accepting;
+    private ExecutorService workers;
+    private CountDownLatch sendersDone;
+
+    public MessageSendPipeline(MessageService messageService,
+                               XmppConnectionPool xmppConnectionPool,
+                               MessagingMetrics messagingMetrics,
+                               @Value("${messaging.pipeline.queue-capacity:10000}") int queueCapacity,
+                               @Value("${messaging.pipeline.batch-size:100}") int batchSize,
+                               @Value("${messaging.pipeline.send-workers:2}") int sendWorkers,
+                               @Value("${messaging.pipeline.archive-workers:2}") int archiveWorkers,
+                               @Value("${messaging.pipeline.status-retention-ms:600000}") long statusRetentionMs,
+                               @Value("${messaging.pipeline.drain-timeout-ms:20000}") long drainTimeoutMs,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.messageService = messageService;
+        this.xmppConnectionPool = xmppConnectionPool;
+        this.messagingMetrics = messagingMetrics;
+        this.sendQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.archiveQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.sendWorkers = sendWorkers;
+        this.archiveWorkers = archiveWorkers;
+        this.statusRetention = Duration.ofMillis(statusRetentionMs);
+        this.drainTimeoutMs = drainTimeoutMs;
+        this.virtualThreads = virtualThreads;
+    }
+
+    @PostConstruct
+    public void start() {
+        accepting = true;
+        sendersDone = new CountDownLatch(sendWorkers);
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("send-pipeline-", 1).factory()
+                : Thread.ofPlatform().name("send-pipeline-", 1).daemon().factory();
+        workers = Executors.newFixedThreadPool(sendWorkers + archiveWorkers, threadFactory);
+        for (int i = 0; i < sendWorkers; i++) {
+            workers.execute(this::sendLoop);
+        }
+        for (int i = 0; i < archiveWorkers; i++) {
+            workers.execute(this::archiveLoop);
+        }
+        messagingMetrics.gauge("messaging.pipeline.send.queue", "Messages waiting to be sent", sendQueue, BlockingQueue::size);
+        messagingMetrics.gauge("messaging.pipeline.archive.queue", "Sent messages waiting to be archived", archiveQueue, BlockingQueue::size);
+        log.info("Send pipeline started with {} send worker(s) and {} archive worker(s).", sendWorkers, archiveWorkers);
+    }
+
+    /**
+     * Stops taking new messages and lets the workers deliver and archive what was already
+     * accepted, for up to {@code drain-timeout-ms}. Only then are they interrupted; messages
+     * still queued at that point are marked FAILED.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        accepting = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+            log.warn("Send pipeline did not drain within {} ms, interrupting it.", drainTimeoutMs);
+            workers.shutdownNow();
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        Set<OutboundMessage> undelivered = new LinkedHashSet<>();
+        sendQueue.drainTo(undelivered);
+        archiveQueue.drainTo(undelivered);
+        // Taken by a batch that was interrupted before it got to send them.
+        tracked.values().stream()
+                .filter(m -> m.status == DeliveryStatus.QUEUED)
+                .forEach(undelivered::add);
+        for (OutboundMessage message : undelivered) {
+            message.fail("Send pipeline stopped before the message was delivered");
+        }
+        if (!undelivered.isEmpty()) {
+            log.warn("Send pipeline stopped with {} undelivered message(s), marked failed.", undelivered.size());
+        }
+    }
+
+    /**
+     * Queues a validated message for delivery and returns its id. Must be called on the
+     * request thread, since the sender is taken from the security context.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public String submit(MessageDto messageDto) {
+        int messageType = messageService.determineMessageType(StringUtils.hasText(messageDto.getBody()),
+                messageDto.getMedia() != null, messageDto.getFile() != null);
+        OutboundMessage message = new OutboundMessage(UUID.randomUUID().toString(),
+                messageService.currentUserJid(), messageType, messageDto);
+        // The staged attachments now live until the message is archived or fails.
+        message.attachments().forEach(StagedAttachment::handOff);
+        tracked.put(message.id, message);
+        if (!accepting || !sendQueue.offer(message)) {
+            tracked.remove(message.id);
+            message.attachments().forEach(StagedAttachment::discard);
+            throw new RejectedExecutionException(accepting ? "Send queue is full" : "Send pipeline is shutting down");
+        }
+        return message.id;
+    }
+
+    /**
+     * Delivery state of a message, visible only to the user who sent it.
+     */
+    public Optional<DeliveryStatusDto> getStatus(String messageId, String requesterJid) {
+        OutboundMessage message = tracked.get(messageId);
+        if (message == null || !message.fromJid.equals(requesterJid)) {
+            return Optional.empty();
+        }
+        return Optional.of(new DeliveryStatusDto(message.id, message.status, message.error, message.updatedAt));
+    }
+
+    @Scheduled(fixedDelayString = "${messaging.pipeline.status-retention-ms:600000}")
+    public void evictCompleted() {
+        Instant cutoff = Instant.now().minus(statusRetention);
+        tracked.values().removeIf(m -> m.isTerminal() && m.updatedAt.isBefore(cutoff));
+    }
+
+    private void sendLoop() {
+        List<OutboundMessage> batch = new ArrayList<>(batchSize);
+        try {
+            // Once stopped, keeps going until everything accepted has been sent.
+            while (accepting || !sendQueue.isEmpty()) {
+                try {
+                    if (takeBatch(sendQueue, batch)) {
+                        sendBatch(batch);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Unexpected error in send stage", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            sendersDone.countDown();
+        }
+    }
+
+    private void archiveLoop() {
+        List<OutboundMessage> batch = new ArrayList<>(batchSize);
+        // Runs until the send stage has finished and everything it sent is archived.
+        while (sendersDone.getCount() > 0 || !archiveQueue.isEmpty()) {
+            try {
+                if (takeBatch(archiveQueue, batch)) {
+                    archiveBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Unexpected error in archive stage", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Waits briefly for the first message, so idle workers notice when the pipeline stops.
+     * Returns false if none came.
+     */
+    private boolean takeBatch(BlockingQueue<OutboundMessage> queue, List<OutboundMessage> batch) throws InterruptedException {
+        OutboundMessage first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        return true;
+    }
+
+    private void sendBatch(List<OutboundMessage> batch) throws InterruptedException {
+        List<OutboundMessage> built = new ArrayList<>(batch.size());
+        List<Message> stanzas = new ArrayList<>(batch.size());
+        for (OutboundMessage message : batch) {
+            try {
+                stanzas.add(messageService.buildStanza(message.id, message.fromJid,
+                        message.dto.getTo(), message.dto.getBody()));
+                built.add(message);
+            } catch (Exception e) {
+                log.error("Failed to build XMPP message {}", message.id, e);
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+                message.fail("Failed to send XMPP message: " + e.getMessage());
+            }
+        }
+        if (stanzas.isEmpty()) {
+            return;
+        }
+
+        // Pipelined on one connection per Openfire node, under a single xmpp bulkhead permit.
+        long start = System.nanoTime();
+        List<Exception> failures;
+        try {
+            failures = xmppConnectionPool.sendStanzas(stanzas);
+        } catch (RejectedExecutionException e) {
+            log.warn("Send stage could not get an XMPP permit for a batch of {}: {}", built.size(), e.getMessage());
+            for (OutboundMessage message : built) {
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+                message.fail("Failed to send XMPP message: " + e.getMessage());
+            }
+            return;
+        }
+        long perMessageNanos = (System.nanoTime() - start) / stanzas.size();
+        for (int i = 0; i < built.size(); i++) {
+            OutboundMessage message = built.get(i);
+            Exception failure = failures.get(i);
+            if (failure != null) {
+                log.error("Failed to send XMPP message {}", message.id, failure);
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+                message.fail("Failed to send XMPP message: " + failure.getMessage());
+                continue;
+            }
+            message.update(DeliveryStatus.SENT);
+            messagingMetrics.recordStage(MessagingMetrics.Stage.XMPP_SEND, message.messageType, perMessageNanos);
+            // Blocks when the archive stage falls behind, which in turn backs up the send queue.
+            archiveQueue.put(message);
+        }
+        log.debug("Send stage pushed a batch of {} stanza(s).", batch.size());
+    }
+
+    private void archiveBatch(List<OutboundMessage> batch) throws InterruptedException {
+        List<OutboundMessage> prepared = new ArrayList<>(batch.size());
+        List<AppArchivedMessage> rows = new ArrayList<>(batch.size());
+        for (OutboundMessage message : batch) {
+            long start = System.nanoTime();
+            try {
+                rows.add(messageService.prepareArchive(message.fromJid, message.dto));
+                prepared.add(message);
+                messagingMetrics.recordStage(MessagingMetrics.Stage.ATTACHMENT_STORE, message.messageType, System.nanoTime() - start);
+            } catch (Exception e) {
+                log.error("Failed to store attachments for message {}", message.id, e);
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.ATTACHMENT_STORE);
+                message.fail("Failed to archive message: " + e.getMessage());
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        List<CompletableFuture<AppArchivedMessage>> archived = messageService.archiveAll(rows);
+        for (int i = 0; i < prepared.size(); i++) {
+            OutboundMessage message = prepared.get(i);
+            archived.get(i).whenComplete((row, failure) -> {
+                if (failure == null) {
+                    message.update(DeliveryStatus.ARCHIVED);
+                    messagingMetrics.recordSend(message.messageType, System.nanoTime() - message.submittedNanos);
+                } else {
+                    log.error("Failed to archive message {}", message.id, failure);
+                    message.fail("Failed to archive message: " + failure.getMessage());
+                }
+            });
+        }
+    }
+
+    private static final class OutboundMessage {
+        private final String id;
+        private final String fromJid;
+        private final int messageType;
+        private final long submittedNanos = System.nanoTime();
+        private MessageDto dto;
+        private volatile DeliveryStatus status = DeliveryStatus.QUEUED;
+        private volatile String error;
+        private volatile Instant updatedAt = Instant.now();
+
+        private OutboundMessage(String id, String fromJid, int messageType, MessageDto dto) {
+            this.id = id;
+            this.fromJid = fromJid;
+            this.messageType = messageType;
+            this.dto = dto;
+        }
+
+        private void update(DeliveryStatus status) {
+            this.status = status;
+            this.updatedAt = Instant.now();
+            if (isTerminal()) {
+                // Only the status is kept for polling; release the payload and attachments.
+                attachments().forEach(StagedAttachment::discard);
+                this.dto = null;
+            }
+        }
+
+        private Stream<StagedAttachment> attachments() {
+            MessageDto payload = dto;
+            return payload == null ? Stream.empty() : Stream.of(payload.getFile(), payload.getMedia()).filter(Objects::nonNull);
+        }
+
+        private void fail(String error) {
+            this.error = error;
+            update(DeliveryStatus.FAILED);
+        }
+
+        private boolean isTerminal() {
+            return status == DeliveryStatus.ARCHIVED || status == DeliveryStatus.FAILED;
+        }
+    }
+}
@@ -1,199 +1,415 @@
 package com.example.openfiremessaging.service;
 
+import com.example.openfiremessaging.dto.BroadcastMessageDto;
+import com.example.openfiremessaging.dto.BroadcastRecipientResult;
+import com.example.openfiremessaging.dto.BroadcastResponse;
+import com.example.openfiremessaging.dto.DeliveryStatus;
+import com.example.openfiremessaging.dto.HistoryCursor;
 import com.example.openfiremessaging.dto.MessageDto;
+import com.example.openfiremessaging.dto.MessageHistoryPage;
+import com.example.openfiremessaging.dto.MultipartMessageDto;
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
 import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.model.ConversationKeys;
 import com.example.openfiremessaging.repository.AppArchivedMessageRepository;
+import com.example.openfiremessaging.search.MessageSearchIndex;
+import com.example.openfiremessaging.xmpp.XmppConnectionPool;
 import lombok.extern.slf4j.Slf4j;
-import org.jivesoftware.smack.AbstractXMPPConnection;
-import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.MessageBuilder;
-import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
 import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.MediaType;
-import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.Instant;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @Service
 public class MessageService {
 
     private final AppArchivedMessageRepository appArchivedMessageRepository;
-    private final Path fileStorageLocation;
-    private final Path mediaStorageLocation;
+    private final AttachmentStorage attachmentStorage;
+    private final ArchiveWriter archiveWriter;
+    private final XmppConnectionPool xmppConnectionPool;
+    private final ConversationKeyBackfill conversationKeyBackfill;
+    private final ColdArchive coldArchive;
+    private final DownstreamLimits downstreamLimits;
+    private final MessageStreamHub messageStreamHub;
+    private final ConversationTailCache conversationTailCache;
+    private final MessageSearchIndex messageSearchIndex;
+    private final MessagingMetrics messagingMetrics;
     private final String domain;
-    private final String openfireHost;
-    private final String adminUsername;
-    private final String adminPassword;
+    private final int historyDefaultLimit;
+    private final int historyMaxLimit;
+    private final int broadcastMaxRecipients;
 
     public MessageService(AppArchivedMessageRepository appArchivedMessageRepository,
-                          @Value("${file.attachment-dir1}") String fileUploadPath,
-                          @Value("${file.attachment-dir2}") String mediaUploadPath,
+                          AttachmentStorage attachmentStorage,
+                          ArchiveWriter archiveWriter,
+                          XmppConnectionPool xmppConnectionPool,
+                          ConversationKeyBackfill conversationKeyBackfill,
+                          ColdArchive coldArchive,
+                          DownstreamLimits downstreamLimits,
+                          MessageStreamHub messageStreamHub,
+                          ConversationTailCache conversationTailCache,
+                          MessageSearchIndex messageSearchIndex,
+                          MessagingMetrics messagingMetrics,
                           @Value("${openfire.domain}") String domain,
-                          @Value("${openfire.host}") String openfireHost,
-                          @Value("${openfire.admin.username}") String adminUsername,
-                          @Value("${OPENFIRE_ADMIN_PASSWORD}") String adminPassword) {
+                          @Value("${messaging.history.default-limit:50}") int historyDefaultLimit,
+                          @Value("${messaging.history.max-limit:200}") int historyMaxLimit,
+                          @Value("${messaging.broadcast.max-recipients:1000}") int broadcastMaxRecipients) {
         this.appArchivedMessageRepository = appArchivedMessageRepository;
+        this.attachmentStorage = attachmentStorage;
+        this.archiveWriter = archiveWriter;
+        this.xmppConnectionPool = xmppConnectionPool;
+        this.conversationKeyBackfill = conversationKeyBackfill;
+        this.coldArchive = coldArchive;
+        this.downstreamLimits = downstreamLimits;
+        this.messageStreamHub = messageStreamHub;
+        this.conversationTailCache = conversationTailCache;
+        this.messageSearchIndex = messageSearchIndex;
+        this.messagingMetrics = messagingMetrics;
         this.domain = domain;
-        this.openfireHost = openfireHost;
-        this.adminUsername = adminUsername;
-        this.adminPassword = adminPassword;
+        this.historyDefaultLimit = historyDefaultLimit;
+        this.historyMaxLimit = historyMaxLimit;
+        this.broadcastMaxRecipients = broadcastMaxRecipients;
+    }
+
+    public void sendMessage(MessageDto messageDto) throws Exception {
+        long start = System.nanoTime();
+        int messageType = determineMessageType(StringUtils.hasText(messageDto.getBody()),
+                messageDto.getMedia() != null, messageDto.getFile() != null);
+
+        String fromJid = currentUserJid();
+
+        // ====== XMPP Sending Logic Start ======
+        sendStanza(fromJid, messageDto.getTo(), messageDto.getBody(), messageType);
+        // ====== XMPP Sending Logic End ======
+
 
-        this.fileStorageLocation = Paths.get(fileUploadPath).toAbsolutePath().normalize();
-        this.mediaStorageLocation = Paths.get(mediaUploadPath).toAbsolutePath().normalize();
+        // ====== Existing Archiving Logic Start ======
+        // This part runs only if the XMPP message was sent successfully.
+        long stageStart = System.nanoTime();
+        AppArchivedMessage archivedMessage;
         try {
-            Files.createDirectories(this.fileStorageLocation);
-            Files.createDirectories(this.mediaStorageLocation);
-        } catch (IOException ex) {
-            throw new RuntimeException("Could not create the directories where the uploaded files will be stored.", ex);
+            archivedMessage = prepareArchive(fromJid, messageDto);
+        } catch (IOException | RuntimeException e) {
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.ATTACHMENT_STORE);
+            throw e;
         }
+        messagingMetrics.recordStage(MessagingMetrics.Stage.ATTACHMENT_STORE, messageType, System.nanoTime() - stageStart);
+
+        archive(archivedMessage);
+        log.info("Message from {} to {} archived successfully.", fromJid, messageDto.getTo());
+        // ====== Existing Archiving Logic End ======
+        messagingMetrics.recordSend(messageType, System.nanoTime() - start);
     }
 
-    public void sendMessage(MessageDto messageDto) throws Exception {
+    /**
+     * Sends a message whose attachments arrive as multipart parts. Each part is streamed
+     * straight from the request into the attachment directory.
+     */
+    public void sendMessage(MultipartMessageDto messageDto) throws Exception {
+        long start = System.nanoTime();
+        int messageType = determineMessageType(StringUtils.hasText(messageDto.getBody()),
+                messageDto.hasMedia(), messageDto.hasFile());
 
-        String fromUsername = SecurityContextHolder.getContext().getAuthentication().getName();
-        String fromJid = fromUsername + "@" + domain;
+        String fromJid = currentUserJid();
 
-        // ====== XMPP Sending Logic Start ======
-        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
-                .setUsernameAndPassword(adminUsername, adminPassword)
-                .setXmppDomain(domain)
-                .setHost(openfireHost)
-                .setPort(5222)
-                .setSecurityMode(ConnectionConfiguration.SecurityMode.ifpossible)
-                .build();
+        sendStanza(fromJid, messageDto.getTo(), messageDto.getBody(), messageType);
+
+        long stageStart = System.nanoTime();
+        StoredAttachment file = null;
+        StoredAttachment media = null;
+        try {
+            if (messageDto.hasFile()) {
+                file = attachmentStorage.store(messageDto.getFile(), messageDto.getFile().getOriginalFilename(), AttachmentStorage.Kind.FILE);
+            }
+            if (messageDto.hasMedia()) {
+                try {
+                    media = attachmentStorage.store(messageDto.getMedia(), messageDto.getMedia().getOriginalFilename(), AttachmentStorage.Kind.MEDIA);
+                } catch (IOException | RuntimeException e) {
+                    attachmentStorage.release(file != null ? file.getFullPath() : null);
+                    throw e;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.ATTACHMENT_STORE);
+            throw e;
+        }
+        messagingMetrics.recordStage(MessagingMetrics.Stage.ATTACHMENT_STORE, messageType, System.nanoTime() - stageStart);
+
+        archive(buildArchive(fromJid, messageDto.getTo(), messageDto.getBody(), file, media));
+        log.info("Message from {} to {} archived successfully.", fromJid, messageDto.getTo());
+        messagingMetrics.recordSend(messageType, System.nanoTime() - start);
+    }
 
-        AbstractXMPPConnection connection = new XMPPTCPConnection(config);
+    /**
+     * Sends one message to many recipients. The stanzas are pipelined over one pooled
+     * connection, the attachments are stored once and referenced by every copy, and the
+     * copies of all recipients that were reached are archived in one transaction. Only a
+     * failure to store the attachments fails the whole request; everything else is
+     * reported per recipient.
+     */
+    public BroadcastResponse broadcast(BroadcastMessageDto messageDto) throws Exception {
+        long start = System.nanoTime();
+        List<String> recipients = new ArrayList<>(new LinkedHashSet<>(messageDto.getTo().stream()
+                .filter(StringUtils::hasText)
+                .map(String::trim)
+                .toList()));
+        if (recipients.isEmpty()) {
+            throw new IllegalArgumentException("No recipients given");
+        }
+        if (recipients.size() > broadcastMaxRecipients) {
+            throw new IllegalArgumentException("At most " + broadcastMaxRecipients + " recipients per broadcast");
+        }
+        int messageType = determineMessageType(StringUtils.hasText(messageDto.getBody()),
+                messageDto.getMedia() != null, messageDto.getFile() != null);
+        String fromJid = currentUserJid();
+
+        BroadcastRecipientResult[] results = new BroadcastRecipientResult[recipients.size()];
+        List<Message> stanzas = new ArrayList<>(recipients.size());
+        List<Integer> stanzaRecipients = new ArrayList<>(recipients.size());
+        for (int i = 0; i < recipients.size(); i++) {
+            try {
+                stanzas.add(buildStanza(null, fromJid, recipients.get(i), messageDto.getBody()));
+                stanzaRecipients.add(i);
+            } catch (XmppStringprepException e) {
+                results[i] = new BroadcastRecipientResult(recipients.get(i), DeliveryStatus.FAILED, null, "Invalid JID");
+            }
+        }
 
+        long stageStart = System.nanoTime();
+        List<Exception> sendFailures;
         try {
-            connection.connect();
-            connection.login();
-            log.info("Admin user '{}' connected to Openfire to send a message.", adminUsername);
-
-            // Use MessageBuilder to create the message stanza
-            MessageBuilder messageBuilder = MessageBuilder.buildMessage()
-                    .to(JidCreate.from(messageDto.getTo()))
-                    .from(JidCreate.from(fromJid))
-                    .ofType(Message.Type.chat);
-
-            // For now, we only send the text body. File transfer requires more complex XMPP extensions.
-            if (StringUtils.hasText(messageDto.getBody())) {
-                messageBuilder.setBody(messageDto.getBody());
+            sendFailures = xmppConnectionPool.sendStanzas(stanzas);
+        } catch (RejectedExecutionException e) {
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+            throw e;
+        }
+        messagingMetrics.recordStage(MessagingMetrics.Stage.XMPP_SEND, messageType, System.nanoTime() - stageStart);
+        List<Integer> sent = new ArrayList<>(stanzas.size());
+        for (int j = 0; j < stanzas.size(); j++) {
+            int i = stanzaRecipients.get(j);
+            if (sendFailures.get(j) != null) {
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+                results[i] = new BroadcastRecipientResult(recipients.get(i), DeliveryStatus.FAILED, null,
+                        "Failed to send XMPP message: " + sendFailures.get(j).getMessage());
             } else {
-                messageBuilder.setBody(""); // Send empty body if no text but there are attachments
+                sent.add(i);
+            }
+        }
+        log.info("Broadcast from {} sent to {} of {} recipient(s).", fromJid, sent.size(), recipients.size());
+
+        if (!sent.isEmpty()) {
+            stageStart = System.nanoTime();
+            AppArchivedMessage template;
+            try {
+                MessageDto content = new MessageDto(messageDto.getBody(), messageDto.getFileName(), messageDto.getMedia(),
+                        recipients.get(sent.get(0)), null, messageDto.getMediaName(), messageDto.getFile());
+                template = prepareArchive(fromJid, content);
+            } catch (IOException | RuntimeException e) {
+                messagingMetrics.recordFailure(MessagingMetrics.Stage.ATTACHMENT_STORE);
+                throw e;
             }
+            // One stored blob, one reference per archive row.
+            attachmentStorage.retain(template.getFileAdd(), sent.size() - 1);
+            attachmentStorage.retain(template.getMediaAdd(), sent.size() - 1);
+            messagingMetrics.recordStage(MessagingMetrics.Stage.ATTACHMENT_STORE, messageType, System.nanoTime() - stageStart);
+
+            List<AppArchivedMessage> rows = new ArrayList<>(sent.size());
+            for (int i : sent) {
+                rows.add(copyFor(template, recipients.get(i)));
+            }
+            List<CompletableFuture<AppArchivedMessage>> archived = archiveAll(rows);
+            for (int k = 0; k < sent.size(); k++) {
+                int i = sent.get(k);
+                try {
+                    AppArchivedMessage row = archived.get(k).join();
+                    results[i] = new BroadcastRecipientResult(recipients.get(i), DeliveryStatus.ARCHIVED, row.getId(), null);
+                } catch (CompletionException e) {
+                    results[i] = new BroadcastRecipientResult(recipients.get(i), DeliveryStatus.SENT, null,
+                            "Failed to archive message: " + e.getCause().getMessage());
+                }
+            }
+        }
 
-            Message message = messageBuilder.build();
+        messagingMetrics.recordBroadcast(recipients.size());
+        messagingMetrics.recordSend(messageType, System.nanoTime() - start);
+        return new BroadcastResponse(recipients.size(), sent.size(), recipients.size() - sent.size(), Arrays.asList(results));
+    }
 
-            connection.sendStanza(message);
-            log.info("XMPP message sent from {} to {}", fromJid, messageDto.getTo());
+    private static AppArchivedMessage copyFor(AppArchivedMessage template, String to) {
+        AppArchivedMessage copy = new AppArchivedMessage();
+        copy.setFromJid(template.getFromJid());
+        copy.setToJid(to);
+        copy.setConversationKey(ConversationKeys.of(template.getFromJid(), to));
+        copy.setSentDate(template.getSentDate());
+        copy.setMessageType(template.getMessageType());
+        copy.setBody(template.getBody());
+        copy.setMediaName(template.getMediaName());
+        copy.setFileName(template.getFileName());
+        copy.setFileAdd(template.getFileAdd());
+        copy.setMediaAdd(template.getMediaAdd());
+        return copy;
+    }
 
+    private void sendStanza(String fromJid, String to, String body, int messageType) throws Exception {
+        long start = System.nanoTime();
+        try {
+            // Sent on a warm, already authenticated admin connection from the pool.
+            xmppConnectionPool.sendStanza(buildStanza(null, fromJid, to, body));
+            log.info("XMPP message sent from {} to {}", fromJid, to);
+        } catch (RejectedExecutionException e) {
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
+            throw e;
         } catch (Exception e) {
             log.error("Failed to send XMPP message", e);
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.XMPP_SEND);
             // Re-throw the exception to notify the controller that the real-time send failed
             throw new Exception("Failed to send XMPP message: " + e.getMessage(), e);
-        } finally {
-            if (connection.isConnected()) {
-                connection.disconnect();
-            }
         }
-        // ====== XMPP Sending Logic End ======
+        messagingMetrics.recordStage(MessagingMetrics.Stage.XMPP_SEND, messageType, System.nanoTime() - start);
+    }
 
+    /**
+     * The bare JID of the authenticated caller. Must be called on the request thread,
+     * since it reads the security context.
+     */
+    public String currentUserJid() {
+        return SecurityContextHolder.getContext().getAuthentication().getName() + "@" + domain;
+    }
 
-        // ====== Existing Archiving Logic Start ======
-        // This part runs only if the XMPP message was sent successfully.
-        String fileAddress = null;
-        String mediaAddress = null;
-        String uniqueFileName = null;
-        String uniqueMediaName = null;
+    /**
+     * Builds the chat stanza for a message. A null messageId lets Smack assign one.
+     */
+    public Message buildStanza(String messageId, String fromJid, String to, String body) throws XmppStringprepException {
+        // Use MessageBuilder to create the message stanza
+        MessageBuilder messageBuilder = (messageId != null ? MessageBuilder.buildMessage(messageId) : MessageBuilder.buildMessage())
+                .to(JidCreate.from(to))
+                .from(JidCreate.from(fromJid))
+                .ofType(Message.Type.chat);
+
+        // For now, we only send the text body. File transfer requires more complex XMPP extensions.
+        if (StringUtils.hasText(body)) {
+            messageBuilder.setBody(body);
+        } else {
+            messageBuilder.setBody(""); // Send empty body if no text but there are attachments
+        }
 
-        boolean bodyPresent = StringUtils.hasText(messageDto.getBody());
-        boolean mediaPresent = StringUtils.hasText(messageDto.getMedia());
-        boolean filePresent = StringUtils.hasText(messageDto.getFile());
+        return messageBuilder.build();
+    }
 
-        int messageType = determineMessageType(bodyPresent, mediaPresent, filePresent);
-        log.info("Determined messageType for archiving: {}", messageType);
+    /**
+     * Stores the attachments of a message and builds its (unsaved) archive row.
+     */
+    public AppArchivedMessage prepareArchive(String fromJid, MessageDto messageDto) throws IOException {
+        StoredAttachment file = null;
+        StoredAttachment media = null;
 
-        if (filePresent) {
-            AttachmentResult fileResult = storeAttachment(messageDto.getFile(), messageDto.getFileName(), fileStorageLocation);
-            uniqueFileName = fileResult.getUniqueName();
-            fileAddress = fileResult.getFullPath();
+        if (messageDto.getFile() != null) {
+            file = attachmentStorage.store(messageDto.getFile(), messageDto.getFileName());
         }
 
-        if (mediaPresent) {
-            AttachmentResult mediaResult = storeAttachment(messageDto.getMedia(), messageDto.getMediaName(), mediaStorageLocation);
-            uniqueMediaName = mediaResult.getUniqueName();
-            mediaAddress = mediaResult.getFullPath();
+        if (messageDto.getMedia() != null) {
+            try {
+                media = attachmentStorage.store(messageDto.getMedia(), messageDto.getMediaName());
+            } catch (IOException | RuntimeException e) {
+                attachmentStorage.release(file != null ? file.getFullPath() : null);
+                throw e;
+            }
         }
 
+        return buildArchive(fromJid, messageDto.getTo(), messageDto.getBody(), file, media);
+    }
+
+    private AppArchivedMessage buildArchive(String fromJid, String to, String body,
+                                            StoredAttachment file, StoredAttachment media) {
+        boolean bodyPresent = StringUtils.hasText(body);
+        boolean mediaPresent = media != null;
+        boolean filePresent = file != null;
+
+        int messageType = determineMessageType(bodyPresent, mediaPresent, filePresent);
+        log.info("Determined messageType for archiving: {}", messageType);
+
         AppArchivedMessage archivedMessage = new AppArchivedMessage();
         archivedMessage.setFromJid(fromJid);
-        archivedMessage.setToJid(messageDto.getTo());
+        archivedMessage.setToJid(to);
+        archivedMessage.setConversationKey(ConversationKeys.of(fromJid, to));
         archivedMessage.setSentDate(Instant.now());
         archivedMessage.setMessageType(messageType);
-        archivedMessage.setBody(messageDto.getBody());
-        archivedMessage.setMediaName(uniqueMediaName);
-        archivedMessage.setFileName(uniqueFileName);
-        archivedMessage.setFileAdd(fileAddress);
-        archivedMessage.setMediaAdd(mediaAddress);
-
-        appArchivedMessageRepository.save(archivedMessage);
-        log.info("Message from {} to {} archived successfully.", fromJid, messageDto.getTo());
-        // ====== Existing Archiving Logic End ======
+        archivedMessage.setBody(body);
+        archivedMessage.setMediaName(mediaPresent ? media.getUniqueName() : null);
+        archivedMessage.setFileName(filePresent ? file.getUniqueName() : null);
+        archivedMessage.setFileAdd(filePresent ? file.getFullPath() : null);
+        archivedMessage.setMediaAdd(mediaPresent ? media.getFullPath() : null);
+        return archivedMessage;
     }
 
-
-    private AttachmentResult storeAttachment(String base64Content, String originalFileName, Path storageLocation) throws IOException {
-        String cleanOriginalName = StringUtils.cleanPath(originalFileName);
-        String fileExtension = "";
-        if (cleanOriginalName.contains(".")) {
-            fileExtension = cleanOriginalName.substring(cleanOriginalName.lastIndexOf("."));
+    /**
+     * Hands prepared rows to the archive writer, which inserts them together, in the same
+     * transaction as whatever concurrent senders queued. Each future completes once its
+     * row is committed; rows that fail give their attachment references back.
+     */
+    public List<CompletableFuture<AppArchivedMessage>> archiveAll(List<AppArchivedMessage> archivedMessages) throws InterruptedException {
+        long start = System.nanoTime();
+        List<CompletableFuture<AppArchivedMessage>> submitted = archiveWriter.submitAll(archivedMessages);
+        List<CompletableFuture<AppArchivedMessage>> futures = new ArrayList<>(archivedMessages.size());
+        for (int i = 0; i < archivedMessages.size(); i++) {
+            AppArchivedMessage archivedMessage = archivedMessages.get(i);
+            futures.add(submitted.get(i).whenComplete((row, failure) -> {
+                if (failure != null) {
+                    messagingMetrics.recordFailure(MessagingMetrics.Stage.ARCHIVE);
+                    releaseAttachments(archivedMessage);
+                } else {
+                    messagingMetrics.recordStage(MessagingMetrics.Stage.ARCHIVE, row.getMessageType(), System.nanoTime() - start);
+                    conversationTailCache.append(row);
+                    messageSearchIndex.index(row);
+                    messageStreamHub.publish(row);
+                }
+            }));
         }
-        String uniqueName = UUID.randomUUID().toString() + fileExtension;
-        Path targetLocation = storageLocation.resolve(uniqueName);
-        MultipartFile multipartFile = convertBase64ToMultipartFile(base64Content, uniqueName);
+        return futures;
+    }
 
-        try (InputStream inputStream = multipartFile.getInputStream()) {
-            Files.copy(inputStream, targetLocation, StandardCopyOption.REPLACE_EXISTING);
-            log.info("Saved attachment '{}' to: {}", originalFileName, targetLocation);
+    private void archive(AppArchivedMessage archivedMessage) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            archiveWriter.write(archivedMessage);
+        } catch (RuntimeException e) {
+            messagingMetrics.recordFailure(MessagingMetrics.Stage.ARCHIVE);
+            releaseAttachments(archivedMessage);
+            throw e;
         }
-
-        return new AttachmentResult(uniqueName, targetLocation.toString());
+        messagingMetrics.recordStage(MessagingMetrics.Stage.ARCHIVE, archivedMessage.getMessageType(), System.nanoTime() - start);
+        conversationTailCache.append(archivedMessage);
+        messageSearchIndex.index(archivedMessage);
+        messageStreamHub.publish(archivedMessage);
     }
 
-    private static class AttachmentResult {
-        private final String uniqueName;
-        private final String fullPath;
-        public AttachmentResult(String uniqueName, String fullPath) { this.uniqueName = uniqueName; this.fullPath = fullPath; }
-        public String getUniqueName() { return uniqueName; }
-        public String getFullPath() { return fullPath; }
+    /**
+     * Gives back the blob references taken for a row that never made it into the archive.
+     */
+    public void releaseAttachments(AppArchivedMessage archivedMessage) {
+        attachmentStorage.release(archivedMessage.getFileAdd());
+        attachmentStorage.release(archivedMessage.getMediaAdd());
     }
 
-    private MultipartFile convertBase64ToMultipartFile(String base64Content, String fileName) {
-        byte[] decodedBytes = Base64.getDecoder().decode(base64Content);
-        String contentType = URLConnection.getFileNameMap().getContentTypeFor(fileName);
-        if (contentType == null) {
-            contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
-        }
-        return new MockMultipartFile("file", fileName, contentType, decodedBytes);
-    }
 
     public int determineMessageType(boolean bodyPresent, boolean mediaPresent, boolean filePresent) {
         if (bodyPresent && mediaPresent && filePresent) return 7;
@@ -206,9 +422,161 @@ public class MessageService {
         return 0;
     }
 
-    public List<AppArchivedMessage> getMessageHistory(String withJid) {
-        String currentUserJid = SecurityContextHolder.getContext().getAuthentication().getName() + "@" + domain;
+    /**
+     * Resolves the file or media attachment of a message for download. Only the sender
+     * and the recipient of the message may fetch it; for anyone else the attachment does
+     * not exist.
+     */
+    public Optional<AttachmentFile> findAttachment(Long messageId, AttachmentStorage.Kind kind) throws IOException, InterruptedException {
+        String currentUserJid = currentUserJid();
+        Optional<AppArchivedMessage> message = downstreamLimits.jdbc().call(() -> {
+            Optional<AppArchivedMessage> hot = appArchivedMessageRepository.findById(messageId);
+            return hot.isPresent() ? hot : coldArchive.findById(messageId, currentUserJid);
+        });
+        if (message.isEmpty()
+                || !(currentUserJid.equals(message.get().getFromJid()) || currentUserJid.equals(message.get().getToJid()))) {
+            return Optional.empty();
+        }
+        AppArchivedMessage archived = message.get();
+        return kind == AttachmentStorage.Kind.MEDIA
+                ? attachmentStorage.locate(archived.getMediaAdd(), archived.getMediaName())
+                : attachmentStorage.locate(archived.getFileAdd(), archived.getFileName());
+    }
+
+    /**
+     * One keyset page of the conversation with {@code withJid}: the latest messages when
+     * no cursor is given, otherwise the messages strictly before or after the cursor.
+     * Latest pages are served from {@link ConversationTailCache} and carry an ETag.
+     * Messages moved to the {@link ColdArchive} are merged in where the archive table ends.
+     */
+    public MessageHistoryPage getMessageHistory(String withJid, String before, String after, Integer limit)
+            throws InterruptedException, IOException {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of 'before' and 'after' may be given");
+        }
+        HistoryCursor beforeCursor = before != null ? HistoryCursor.decode(before) : null;
+        HistoryCursor afterCursor = after != null ? HistoryCursor.decode(after) : null;
+        String currentUserJid = currentUserJid();
+        int pageSize = limit == null ? historyDefaultLimit : Math.max(1, Math.min(limit, historyMaxLimit));
         log.info("Fetching conversation history between {} and {}", currentUserJid, withJid);
-        return appArchivedMessageRepository.findConversation(currentUserJid, withJid);
+
+        if (beforeCursor == null && afterCursor == null && pageSize <= conversationTailCache.getTailSize()) {
+            return latestPage(currentUserJid, withJid, pageSize);
+        }
+
+        long start = System.nanoTime();
+        boolean byConversationKey = conversationKeyBackfill.isComplete();
+        List<AppArchivedMessage> messages = new ArrayList<>(pageSize);
+        boolean hasMore = downstreamLimits.jdbc().call(() -> loadHistoryPage(currentUserJid, withJid, byConversationKey,
+                beforeCursor, afterCursor, pageSize, messages));
+        messagingMetrics.recordHistory(byConversationKey, messages.size(), System.nanoTime() - start);
+
+        return page(messages, before, after, hasMore, null);
+    }
+
+    private MessageHistoryPage latestPage(String currentUserJid, String withJid, int pageSize)
+            throws InterruptedException, IOException {
+        String key = ConversationKeys.of(currentUserJid, withJid);
+        int tailSize = conversationTailCache.getTailSize();
+        boolean byConversationKey = conversationKeyBackfill.isComplete();
+        ConversationTailCache.Tail tail = conversationTailCache.get(key);
+        if (tail != null) {
+            // Other instances commit rows this cache never sees, so check it against the index first.
+            Pageable newest = PageRequest.of(0, tailSize);
+            List<Long> newestIds = downstreamLimits.jdbc().call(() -> byConversationKey
+                    ? appArchivedMessageRepository.findLatestIds(key, newest)
+                    : appArchivedMessageRepository.findLatestIdsByParticipants(currentUserJid, withJid, newest));
+            if (!conversationTailCache.revalidate(key, tail, newestIds)) {
+                tail = null;
+            }
+        }
+        if (tail == null) {
+            long stamp = conversationTailCache.stamp(key);
+            long start = System.nanoTime();
+            List<AppArchivedMessage> rows = new ArrayList<>(tailSize);
+            boolean hasMore = downstreamLimits.jdbc().call(() -> loadHistoryPage(currentUserJid, withJid, byConversationKey,
+                    null, null, tailSize, rows));
+            messagingMetrics.recordHistory(byConversationKey, rows.size(), System.nanoTime() - start);
+            tail = conversationTailCache.populate(key, stamp, rows, !hasMore);
+        }
+
+        List<AppArchivedMessage> rows = tail.getRows();
+        List<AppArchivedMessage> messages = rows.subList(Math.max(0, rows.size() - pageSize), rows.size());
+        boolean hasMore = rows.size() > pageSize || tail.hasOlder();
+        return page(messages, null, null, hasMore, tail.etag(pageSize));
+    }
+
+    private static MessageHistoryPage page(List<AppArchivedMessage> messages, String before, String after,
+                                           boolean hasMore, String etag) {
+        String olderCursor = messages.isEmpty() ? before : HistoryCursor.of(messages.get(0)).encode();
+        String newerCursor = messages.isEmpty() ? after : HistoryCursor.of(messages.get(messages.size() - 1)).encode();
+        return new MessageHistoryPage(messages, olderCursor, newerCursor, hasMore, etag);
+    }
+
+    /**
+     * Loads one page into {@code page} and returns whether more rows lie beyond it.
+     *
+     * Cold messages are all older than the ones left in the archive table, so a page going
+     * forward starts in the cold tier and a page going back ends in it.
+     */
+    private boolean loadHistoryPage(String currentUserJid, String withJid, boolean byConversationKey,
+                                    HistoryCursor before, HistoryCursor after,
+                                    int pageSize, List<AppArchivedMessage> page) throws IOException {
+        String key = ConversationKeys.of(currentUserJid, withJid);
+        int remaining = pageSize;
+        if (after != null) {
+            List<AppArchivedMessage> cold = coldArchive.after(key, after, pageSize + 1);
+            if (cold.size() > pageSize) {
+                page.addAll(cold.subList(0, pageSize));
+                return true;
+            }
+            if (!cold.isEmpty()) {
+                page.addAll(cold);
+                after = HistoryCursor.of(cold.get(cold.size() - 1));
+                remaining -= cold.size();
+            }
+        }
+
+        // One extra row tells whether there is more beyond this page.
+        Pageable fetch = PageRequest.of(0, remaining + 1);
+        List<Long> ids;
+        if (byConversationKey) {
+            if (after != null) {
+                ids = appArchivedMessageRepository.findIdsAfter(key, after.sentDate(), after.id(), fetch);
+            } else if (before != null) {
+                ids = appArchivedMessageRepository.findIdsBefore(key, before.sentDate(), before.id(), fetch);
+            } else {
+                ids = appArchivedMessageRepository.findLatestIds(key, fetch);
+            }
+        } else {
+            if (after != null) {
+                ids = appArchivedMessageRepository.findIdsAfterByParticipants(currentUserJid, withJid, after.sentDate(), after.id(), fetch);
+            } else if (before != null) {
+                ids = appArchivedMessageRepository.findIdsBeforeByParticipants(currentUserJid, withJid, before.sentDate(), before.id(), fetch);
+            } else {
+                ids = appArchivedMessageRepository.findLatestIdsByParticipants(currentUserJid, withJid, fetch);
+            }
+        }
+
+        boolean hasMore = ids.size() > remaining;
+        if (hasMore) {
+            ids = ids.subList(0, remaining);
+        }
+        if (!ids.isEmpty()) {
+            page.addAll(appArchivedMessageRepository.findAllByIdOrdered(ids));
+        }
+        if (hasMore || after != null) {
+            return hasMore;
+        }
+
+        // Going back: continue below the oldest archive row, or the cursor if there was none.
+        HistoryCursor coldBefore = page.isEmpty() ? before : HistoryCursor.of(page.get(0));
+        List<AppArchivedMessage> cold = coldArchive.before(key, coldBefore, remaining - page.size() + 1);
+        hasMore = cold.size() > remaining - page.size();
+        if (hasMore) {
+            cold = cold.subList(1, cold.size());
+        }
+        page.addAll(0, cold);
+        return hasMore;
     }
-}
\ No newline at end of file
+}
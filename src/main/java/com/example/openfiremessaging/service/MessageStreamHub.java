@@ -0,0 +1,258 @@
+package com.example.openfiremessaging.service;
+
+import com.example.openfiremessaging.dto.MessageEvent;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import com.example.openfiremessaging.model.AppArchivedMessage;
+import com.example.openfiremessaging.xmpp.XmppConnectionPool;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.packet.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes new messages to the users' open {@code /api/messages/stream} connections
+ * (Server-Sent Events), so clients do not have to poll {@code /history}.
+ *
+ * Events come from two feeds: rows committed by this service's own send path, and
+ * message stanzas that reach the pooled XMPP connections. Each event is serialized once
+ * and offered to every session of the sender and the recipient.
+ *
+ * Every session has its own bounded buffer, drained by a virtual thread only while it
+ * has events, so a slow client blocks nobody but itself. When its buffer is full the
+ * oldest event is dropped and the client is sent a {@code lag} event with the number of
+ * events it missed; it can catch up from the cursor of the last message it did receive
+ * with {@code /history?after=}. A client that falls more than a whole buffer behind is
+ * disconnected and expected to reconnect and resync.
+ */
+@Slf4j
+@Component
+public class MessageStreamHub {
+
+    private static final PushEvent HEARTBEAT = new PushEvent(null, null, null);
+
+    private final ObjectMapper objectMapper;
+    private final XmppConnectionPool xmppConnectionPool;
+    private final MessagingMetrics messagingMetrics;
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("message-stream-", 1).factory());
+    private final int bufferSize;
+    private final int maxSessionsPerUser;
+    private final long timeoutMs;
+
+    public MessageStreamHub(ObjectMapper objectMapper,
+                            XmppConnectionPool xmppConnectionPool,
+                            MessagingMetrics messagingMetrics,
+                            @Value("${messaging.stream.buffer-size:256}") int bufferSize,
+                            @Value("${messaging.stream.max-sessions-per-user:5}") int maxSessionsPerUser,
+                            @Value("${messaging.stream.timeout-ms:1800000}") long timeoutMs) {
+        this.objectMapper = objectMapper;
+        this.xmppConnectionPool = xmppConnectionPool;
+        this.messagingMetrics = messagingMetrics;
+        this.bufferSize = bufferSize;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        xmppConnectionPool.addIncomingMessageListener(this::publishStanza);
+        messagingMetrics.gauge("messaging.stream.subscribers", "Open message streams", this, MessageStreamHub::getSubscriberCount);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.values().forEach(sessions -> sessions.forEach(s -> s.emitter.complete()));
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Opens a stream for the user. Beyond the per-user session limit the user's oldest
+     * stream is closed to make room.
+     */
+    public SseEmitter subscribe(String userJid) {
+        Subscriber subscriber = new Subscriber(userJid, new SseEmitter(timeoutMs));
+        SseEmitter emitter = subscriber.emitter;
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+
+        // Added inside compute(), so a concurrent remove() of the user's last old session
+        // cannot drop the list from the map between looking it up and adding to it.
+        List<Subscriber> evicted = new ArrayList<>();
+        List<Subscriber> sessions = subscribers.compute(userJid, (k, current) -> {
+            List<Subscriber> list = current != null ? current : new CopyOnWriteArrayList<>();
+            list.add(subscriber);
+            while (list.size() > maxSessionsPerUser) {
+                evicted.add(list.remove(0));
+            }
+            return list;
+        });
+        // Completed outside the map operation, as completion calls back into remove().
+        for (Subscriber oldest : evicted) {
+            log.info("Closing oldest message stream of {}: more than {} open sessions", userJid, maxSessionsPerUser);
+            oldest.emitter.complete();
+        }
+        log.debug("{} opened a message stream ({} session(s))", userJid, sessions.size());
+        return emitter;
+    }
+
+    /**
+     * Publishes a message that has just been committed to the archive.
+     */
+    public void publish(AppArchivedMessage message) {
+        publish(message.getFromJid(), message.getToJid(), () -> MessageEvent.of(message));
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    private void publishStanza(Message stanza) {
+        if (stanza.getFrom() == null || stanza.getTo() == null) {
+            return;
+        }
+        String from = stanza.getFrom().asBareJid().toString();
+        String to = stanza.getTo().asBareJid().toString();
+        publish(from, to, () -> new MessageEvent(null, null, from, to, stanza.getBody(), 1, null, null, Instant.now()));
+    }
+
+    private void publish(String fromJid, String toJid, EventSource source) {
+        List<Subscriber> senderSessions = subscribers.get(bareJid(fromJid));
+        List<Subscriber> recipientSessions = subscribers.get(bareJid(toJid));
+        if (senderSessions == null && recipientSessions == null) {
+            return;
+        }
+
+        MessageEvent event = source.get();
+        PushEvent push;
+        try {
+            push = new PushEvent("message", event.getCursor(), objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            log.error("Could not serialize message event from {} to {}", fromJid, toJid, e);
+            return;
+        }
+        if (senderSessions != null) {
+            senderSessions.forEach(s -> s.offer(push));
+        }
+        if (recipientSessions != null && recipientSessions != senderSessions) {
+            recipientSessions.forEach(s -> s.offer(push));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${messaging.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        // Keeps idle streams open through proxies and surfaces dead connections.
+        subscribers.values().forEach(sessions -> sessions.forEach(s -> {
+            if (s.buffer.isEmpty()) {
+                s.offer(HEARTBEAT);
+            }
+        }));
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.userJid, (k, sessions) -> {
+            sessions.remove(subscriber);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    private static String bareJid(String jid) {
+        int slash = jid != null ? jid.indexOf('/') : -1;
+        return slash >= 0 ? jid.substring(0, slash) : jid;
+    }
+
+    @FunctionalInterface
+    private interface EventSource {
+        MessageEvent get();
+    }
+
+    private record PushEvent(String name, String id, String data) {
+    }
+
+    private final class Subscriber {
+        private final String userJid;
+        private final SseEmitter emitter;
+        private final BlockingQueue<PushEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private Subscriber(String userJid, SseEmitter emitter) {
+            this.userJid = userJid;
+            this.emitter = emitter;
+        }
+
+        private void offer(PushEvent event) {
+            while (!buffer.offer(event)) {
+                if (buffer.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            if (draining.compareAndSet(false, true)) {
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    long missed = dropped.getAndSet(0);
+                    if (missed > bufferSize) {
+                        log.info("Message stream of {} fell {} event(s) behind, disconnecting it", userJid, missed);
+                        emitter.complete();
+                        return;
+                    }
+                    if (missed > 0) {
+                        emitter.send(SseEmitter.event().name("lag").data("{\"missed\":" + missed + "}"));
+                    }
+                    PushEvent event = buffer.poll();
+                    if (event == null) {
+                        draining.set(false);
+                        // Re-check: an offer may have seen draining still set just before it was cleared.
+                        if (buffer.isEmpty() || !draining.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    send(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Message stream of {} is gone: {}", userJid, e.getMessage());
+                buffer.clear();
+                remove(this);
+            }
+        }
+
+        private void send(PushEvent event) throws IOException {
+            if (event == HEARTBEAT) {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+                return;
+            }
+            SseEmitter.SseEventBuilder builder = SseEmitter.event().name(event.name()).data(event.data());
+            if (event.id() != null) {
+                builder.id(event.id());
+            }
+            emitter.send(builder);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.openfiremessaging.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An attachment that was decoded into a temp file under the attachment directory while
+ * the request body was parsed, with its size and SHA-256. Storing it with
+ * {@link AttachmentStorage#store(StagedAttachment, String)} moves the file into place.
+ *
+ * The request that staged it deletes the file when it completes, unless it was
+ * {@linkplain #handOff() handed off} to work that outlives the request; that work then
+ * has to {@link #discard} it.
+ */
+@Slf4j
+@Getter
+public class StagedAttachment {
+    private final Path path;
+    private final AttachmentStorage.Kind kind;
+    private final long size;
+    private final String hash;
+    private volatile boolean handedOff;
+
+    public StagedAttachment(Path path, AttachmentStorage.Kind kind, long size, String hash) {
+        this.path = path;
+        this.kind = kind;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    /**
+     * Takes the file away from the request, which will then no longer delete it.
+     */
+    public void handOff() {
+        handedOff = true;
+    }
+
+    /**
+     * Deletes the temp file if it has not been stored.
+     */
+    public void discard() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete staged attachment {}: {}", path, e.getMessage());
+        }
+    }
+
+    void requestCompleted() {
+        if (!handedOff) {
+            discard();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.openfiremessaging.service;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.jackson.JsonComponent;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.IOException;
+
+/**
+ * Reads a base64 attachment field of a JSON request straight into a staged temp file.
+ *
+ * The parser decodes the string token chunk by chunk as it reads the request body, so
+ * the base64 text never exists as a {@code String} and the heap used per request stays
+ * flat whatever the attachment size. A staged file is deleted when the request ends,
+ * unless it was handed off to the send pipeline.
+ */
+@JsonComponent
+public class StagedAttachmentDeserializer extends JsonDeserializer<StagedAttachment> {
+
+    // Like java.util.Base64, accept content with or without trailing padding.
+    private static final Base64Variant BASE64 = Base64Variants.MIME_NO_LINEFEEDS.withPaddingAllowed();
+
+    // Looked up lazily: the ObjectMapper is built long before the attachment storage.
+    private final ObjectProvider<AttachmentStorage> attachmentStorage;
+
+    public StagedAttachmentDeserializer(ObjectProvider<AttachmentStorage> attachmentStorage) {
+        this.attachmentStorage = attachmentStorage;
+    }
+
+    @Override
+    public StagedAttachment deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.hasToken(JsonToken.VALUE_STRING)) {
+            return (StagedAttachment) context.handleUnexpectedToken(StagedAttachment.class, parser);
+        }
+        // Staging next to the blobs of the same kind keeps storing them a rename.
+        AttachmentStorage.Kind kind = "media".equals(parser.currentName())
+                ? AttachmentStorage.Kind.MEDIA
+                : AttachmentStorage.Kind.FILE;
+        StagedAttachment staged = attachmentStorage.getObject().stage(kind, out -> parser.readBinaryValue(BASE64, out));
+        if (staged == null) {
+            return null;
+        }
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null) {
+            request.registerDestructionCallback(StagedAttachment.class.getName() + ":" + staged.getPath(),
+                    staged::requestCompleted, RequestAttributes.SCOPE_REQUEST);
+        }
+        return staged;
+    }
+}
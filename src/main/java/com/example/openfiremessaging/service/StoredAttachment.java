@@ -0,0 +1,19 @@
+package com.example.openfiremessaging.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Where an attachment ended up: the name recorded on the message, the full path of the
+ * shared blob, the content hash that keys it, its size, and whether it matched a blob
+ * that was already stored.
+ */
+@Getter
+@AllArgsConstructor
+public class StoredAttachment {
+    private final String uniqueName;
+    private final String fullPath;
+    private final String hash;
+    private final long size;
+    private final boolean deduplicated;
+}
@@ -0,0 +1,22 @@
+package com.example.openfiremessaging.validation;
+
+import com.example.openfiremessaging.dto.BroadcastMessageDto;
+import com.example.openfiremessaging.validationrepo.ValidMessage;
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+
+/**
+ * Validator for the @ValidMessage annotation on a broadcast. Applies the same content
+ * rules as {@link MessageValidator}.
+ */
+public class BroadcastMessageValidator implements ConstraintValidator<ValidMessage, BroadcastMessageDto> {
+
+    @Override
+    public boolean isValid(BroadcastMessageDto messageDto, ConstraintValidatorContext context) {
+        if (messageDto == null) {
+            return false;
+        }
+        return MessageValidator.isValidContent(messageDto.getBody(), messageDto.getMedia() != null, messageDto.getMediaName(),
+                messageDto.getFile() != null, messageDto.getFileName(), context);
+    }
+}
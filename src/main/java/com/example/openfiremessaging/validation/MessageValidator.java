@@ -23,12 +23,20 @@ public class MessageValidator implements ConstraintValidator<ValidMessage, Messa
             return false; // Or true, depending on whether null objects are considered valid.
         }
 
-        boolean isBodyPresent = StringUtils.hasText(messageDto.getBody());
-        boolean isMediaPresent = StringUtils.hasText(messageDto.getMedia());
-        boolean isFilePresent = StringUtils.hasText(messageDto.getFile());
+        return isValidContent(messageDto.getBody(), messageDto.getMedia() != null, messageDto.getMediaName(),
+                messageDto.getFile() != null, messageDto.getFileName(), context);
+    }
+
+    /**
+     * The content rules shared by every message payload, whatever its recipients.
+     * Attachments are staged while the body is parsed, so only their presence is checked.
+     */
+    static boolean isValidContent(String body, boolean isMediaPresent, String mediaName, boolean isFilePresent,
+                                  String fileName, ConstraintValidatorContext context) {
+        boolean isBodyPresent = StringUtils.hasText(body);
 
-        boolean isMediaNamePresent = StringUtils.hasText(messageDto.getMediaName());
-        boolean isFileNamePresent = StringUtils.hasText(messageDto.getFileName());
+        boolean isMediaNamePresent = StringUtils.hasText(mediaName);
+        boolean isFileNamePresent = StringUtils.hasText(fileName);
 
         boolean isValid = true;
 
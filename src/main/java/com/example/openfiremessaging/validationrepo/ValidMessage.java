@@ -1,5 +1,6 @@
 package com.example.openfiremessaging.validationrepo;
 
+import com.example.openfiremessaging.validation.BroadcastMessageValidator;
 import com.example.openfiremessaging.validation.MessageValidator;
 import jakarta.validation.Constraint;
 import jakarta.validation.Payload;
@@ -9,7 +10,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Custom validation annotation to ensure that a MessageDto is valid.
+ * Custom validation annotation to ensure that a MessageDto (or BroadcastMessageDto) is valid.
  * A message is considered valid if:
  * 1. At least one of the content fields (body, media, file) is present.
  * 2. If 'file' is present, 'fileName' must also be present.
@@ -19,7 +20,7 @@ import java.lang.annotation.Target;
  */
 @Target({ElementType.TYPE}) // This annotation can only be applied to classes.
 @Retention(RetentionPolicy.RUNTIME) // The annotation will be available at runtime for validation processing.
-@Constraint(validatedBy = MessageValidator.class) // Specifies the validator class that implements the logic.
+@Constraint(validatedBy = {MessageValidator.class, BroadcastMessageValidator.class}) // One validator per payload type.
 public @interface ValidMessage {
 
     // Default error message if validation fails.
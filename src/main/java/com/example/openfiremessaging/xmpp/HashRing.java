@@ -0,0 +1,77 @@
+package com.example.openfiremessaging.xmpp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * A consistent-hash ring: every node is placed at {@code virtualNodes} points, and a key
+ * belongs to the first node clockwise from its own hash. Skipping a node (because it is
+ * down) or removing it only moves the keys it owned, to its successors; every other key
+ * stays where it was.
+ *
+ * Immutable once built, so lookups need no locking.
+ */
+public final class HashRing<T> {
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final int nodeCount;
+
+    public HashRing(Collection<T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("A node needs at least one point on the ring");
+        }
+        for (T node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        this.nodeCount = nodes.size();
+    }
+
+    /**
+     * The node owning {@code key}, skipping nodes {@code eligible} rejects, or null if it
+     * rejects all of them.
+     */
+    public T route(String key, Predicate<? super T> eligible) {
+        long hash = hash(key);
+        T found = firstEligible(ring.tailMap(hash, true), eligible);
+        return found != null ? found : firstEligible(ring.headMap(hash, false), eligible);
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    private static <T> T firstEligible(Map<Long, T> points, Predicate<? super T> eligible) {
+        for (T node : points.values()) {
+            if (eligible.test(node)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that
+     * near-identical keys ("host#1", "host#2") land far apart.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.openfiremessaging.xmpp;
+
+import com.example.openfiremessaging.limits.DownstreamLimits;
+import com.example.openfiremessaging.metrics.MessagingMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.ReconnectionManager;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.filter.MessageWithBodiesFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jivesoftware.smackx.ping.PingManager;
+import org.jxmpp.jid.Jid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a fixed set of long-lived, authenticated admin connections to every configured
+ * Openfire node so that sending a message is a single {@code sendStanza} on a warm
+ * connection instead of a full TCP/TLS/SASL handshake per request.
+ *
+ * Stanzas are routed by consistent hashing of the recipient's bare JID over the nodes
+ * ({@code openfire.nodes}, defaulting to {@code openfire.host:openfire.port}), so a
+ * recipient's messages keep going through the same node. A node none of whose
+ * connections can be authenticated is ejected for {@code openfire.pool.ejection-ms}: its
+ * recipients fail over to the next nodes on the ring and move back once it is readmitted.
+ *
+ * Connections use stream management (XEP-0198) so a dropped socket is resumed rather than
+ * re-established from scratch, Smack's ReconnectionManager for automatic reconnects, and a
+ * scheduled health check that repairs any slot which is still not usable.
+ */
+@Slf4j
+@Component
+public class XmppConnectionPool {
+
+    private final DownstreamLimits downstreamLimits;
+    private final MessagingMetrics messagingMetrics;
+    private final String domain;
+    private final String adminUsername;
+    private final String adminPassword;
+    private final int replyTimeoutMs;
+    private final int pingIntervalSeconds;
+    private final long ejectionMs;
+
+    private final List<NodeConnections> nodes = new ArrayList<>();
+    private final HashRing<NodeConnections> ring;
+
+    public XmppConnectionPool(DownstreamLimits downstreamLimits,
+                              MessagingMetrics messagingMetrics,
+                              @Value("${openfire.domain}") String domain,
+                              @Value("${openfire.nodes:${openfire.host}:${openfire.port}}") String nodeList,
+                              @Value("${openfire.port}") int defaultPort,
+                              @Value("${openfire.admin.username}") String adminUsername,
+                              @Value("${OPENFIRE_ADMIN_PASSWORD}") String adminPassword,
+                              @Value("${openfire.pool.size:4}") int size,
+                              @Value("${openfire.pool.reply-timeout-ms:10000}") int replyTimeoutMs,
+                              @Value("${openfire.pool.ping-interval-seconds:60}") int pingIntervalSeconds,
+                              @Value("${openfire.pool.virtual-nodes:160}") int virtualNodes,
+                              @Value("${openfire.pool.ejection-ms:30000}") long ejectionMs) {
+        if (size < 1) {
+            throw new IllegalArgumentException("openfire.pool.size must be at least 1");
+        }
+        this.downstreamLimits = downstreamLimits;
+        this.messagingMetrics = messagingMetrics;
+        this.domain = domain;
+        this.adminUsername = adminUsername;
+        this.adminPassword = adminPassword;
+        this.replyTimeoutMs = replyTimeoutMs;
+        this.pingIntervalSeconds = pingIntervalSeconds;
+        this.ejectionMs = ejectionMs;
+        for (XmppNode node : XmppNode.parseList(nodeList, defaultPort)) {
+            nodes.add(new NodeConnections(node, size));
+        }
+        this.ring = new HashRing<>(nodes, virtualNodes);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (NodeConnections node : nodes) {
+            for (int i = 0; i < node.slots.length; i++) {
+                node.slots[i] = new PooledConnection(node, i, newConnection(node.node));
+                // A down Openfire must not prevent the application from starting; the health check retries.
+                node.slots[i].ensureAuthenticated();
+            }
+            if (node.usableCount() == 0) {
+                eject(node);
+            }
+        }
+        messagingMetrics.gauge("messaging.xmpp.pool.usable", "Pooled XMPP connections that are authenticated",
+                this, XmppConnectionPool::usableCount);
+        messagingMetrics.gauge("messaging.xmpp.nodes.available", "Openfire nodes currently taking routed stanzas",
+                this, XmppConnectionPool::availableNodeCount);
+        log.info("XMPP connection pool started with {} admin connection(s) to each of {}", size() / nodes.size(),
+                nodes.stream().map(n -> n.node.toString()).toList());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (NodeConnections node : nodes) {
+            for (PooledConnection slot : node.slots) {
+                if (slot != null) {
+                    slot.close();
+                }
+            }
+        }
+        log.info("XMPP connection pool shut down.");
+    }
+
+    /**
+     * Sends the stanza on a healthy pooled connection to the recipient's node, retrying
+     * once if that connection drops. Concurrent senders are capped by the XMPP bulkhead.
+     */
+    public void sendStanza(Stanza stanza) throws SmackException.NotConnectedException, InterruptedException {
+        downstreamLimits.xmpp().run(() -> {
+            XMPPTCPConnection connection = acquire(stanza.getTo());
+            try {
+                connection.sendStanza(stanza);
+            } catch (SmackException.NotConnectedException e) {
+                log.warn("Pooled XMPP connection dropped while sending, retrying on another connection.");
+                acquire(stanza.getTo()).sendStanza(stanza);
+            }
+        });
+    }
+
+    /**
+     * Sends the stanzas back to back under a single bulkhead permit, each on a pooled
+     * connection to its recipient's node. Smack queues them on the connection's writer
+     * thread, so they go out pipelined rather than one round of acquire and send per
+     * stanza. If a connection drops, the rest continue on another one. Returns one entry
+     * per stanza: null if it was sent, otherwise why not.
+     */
+    public List<Exception> sendStanzas(List<? extends Stanza> stanzas) throws InterruptedException {
+        List<Exception> failures = new ArrayList<>(Collections.nCopies(stanzas.size(), null));
+        downstreamLimits.xmpp().run(() -> {
+            // One connection per node for the whole call.
+            Map<NodeConnections, XMPPTCPConnection> connections = new HashMap<>();
+            for (int i = 0; i < stanzas.size(); i++) {
+                Stanza stanza = stanzas.get(i);
+                NodeConnections node = null;
+                try {
+                    node = nodeFor(stanza.getTo());
+                    XMPPTCPConnection connection = connections.get(node);
+                    if (connection == null) {
+                        connection = node.acquire();
+                        connections.put(node, connection);
+                    }
+                    connection.sendStanza(stanza);
+                } catch (SmackException.NotConnectedException e) {
+                    if (node != null) {
+                        connections.remove(node);
+                    }
+                    try {
+                        acquire(stanza.getTo()).sendStanza(stanza);
+                    } catch (SmackException.NotConnectedException retry) {
+                        // No node is usable: fail the rest instead of reconnecting once per stanza.
+                        for (int j = i; j < stanzas.size(); j++) {
+                            failures.set(j, retry);
+                        }
+                        return;
+                    }
+                }
+            }
+        });
+        return failures;
+    }
+
+    /**
+     * Returns an authenticated connection to the node that owns {@code recipient},
+     * round-robin across that node's connections. A node without a usable connection gets
+     * one reconnect attempt and is ejected if that fails, and the next node on the ring is
+     * tried.
+     */
+    public XMPPTCPConnection acquire(Jid recipient) throws SmackException.NotConnectedException {
+        while (true) {
+            NodeConnections node = nodeFor(recipient);
+            try {
+                return node.acquire();
+            } catch (SmackException.NotConnectedException e) {
+                if (!eject(node) || availableNodeCount() == 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * The node that owns {@code recipient}: the first available one on the ring from the
+     * hash of its bare JID. If every node is ejected, its owner among all nodes, so that
+     * the caller's reconnect attempt probes it.
+     */
+    private NodeConnections nodeFor(Jid recipient) {
+        String key = recipient == null ? "" : recipient.asBareJid().toString();
+        NodeConnections node = ring.route(key, n -> n.node.isAvailable());
+        return node != null ? node : ring.route(key, n -> true);
+    }
+
+    private boolean eject(NodeConnections node) {
+        if (!node.node.eject(ejectionMs)) {
+            return false;
+        }
+        log.warn("Openfire node {} ejected for {} ms, its recipients fail over to the next node(s).",
+                node.node, ejectionMs);
+        return true;
+    }
+
+    private void readmit(NodeConnections node) {
+        if (node.node.readmit()) {
+            log.info("Openfire node {} readmitted, its recipients move back to it.", node);
+        }
+    }
+
+    /**
+     * Registers a listener for message stanzas with a body that arrive on any pooled
+     * connection. Called on Smack's executor, so it must not block.
+     */
+    public void addIncomingMessageListener(Consumer<Message> listener) {
+        for (NodeConnections node : nodes) {
+            for (PooledConnection slot : node.slots) {
+                slot.connection.addAsyncStanzaListener(stanza -> listener.accept((Message) stanza),
+                        MessageWithBodiesFilter.INSTANCE);
+            }
+        }
+    }
+
+    public int size() {
+        return nodes.stream().mapToInt(n -> n.slots.length).sum();
+    }
+
+    public int usableCount() {
+        return nodes.stream().mapToInt(NodeConnections::usableCount).sum();
+    }
+
+    public int availableNodeCount() {
+        return (int) nodes.stream().filter(n -> n.node.isAvailable()).count();
+    }
+
+    public List<XmppNode> getNodes() {
+        return nodes.stream().map(n -> n.node).toList();
+    }
+
+    @Scheduled(fixedDelayString = "${openfire.pool.health-check-interval-ms:30000}",
+            initialDelayString = "${openfire.pool.health-check-interval-ms:30000}")
+    public void healthCheck() {
+        for (NodeConnections node : nodes) {
+            for (PooledConnection slot : node.slots) {
+                if (!slot.isUsable()) {
+                    log.info("Pooled XMPP connection #{} to {} is not authenticated, reconnecting.", slot.index, node.node);
+                    slot.ensureAuthenticated();
+                }
+            }
+            if (node.usableCount() == 0) {
+                eject(node);
+            } else {
+                readmit(node);
+            }
+        }
+    }
+
+    private XMPPTCPConnection newConnection(XmppNode node) {
+        try {
+            XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                    .setUsernameAndPassword(adminUsername, adminPassword)
+                    .setXmppDomain(domain)
+                    .setHost(node.getHost())
+                    .setPort(node.getPort())
+                    .setSecurityMode(ConnectionConfiguration.SecurityMode.ifpossible)
+                    .build();
+
+            XMPPTCPConnection connection = new XMPPTCPConnection(config);
+            connection.setReplyTimeout(replyTimeoutMs);
+            connection.setUseStreamManagement(true);
+            connection.setUseStreamManagementResumption(true);
+
+            ReconnectionManager.getInstanceFor(connection).enableAutomaticReconnection();
+            PingManager.getInstanceFor(connection).setPingInterval(pingIntervalSeconds);
+            return connection;
+        } catch (Exception e) {
+            throw new IllegalStateException("Invalid XMPP connection configuration for " + node, e);
+        }
+    }
+
+    /**
+     * The pooled connections to one node.
+     */
+    private final class NodeConnections {
+        private final XmppNode node;
+        private final PooledConnection[] slots;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private NodeConnections(XmppNode node, int size) {
+            this.node = node;
+            this.slots = new PooledConnection[size];
+        }
+
+        /**
+         * Returns an authenticated connection, round-robin across the node's slots. If no
+         * slot is currently authenticated one reconnect attempt is made before failing.
+         */
+        private XMPPTCPConnection acquire() throws SmackException.NotConnectedException {
+            int start = Math.floorMod(next.getAndIncrement(), slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                PooledConnection slot = slots[(start + i) % slots.length];
+                if (slot.isUsable()) {
+                    return slot.connection;
+                }
+            }
+            PooledConnection slot = slots[start];
+            if (slot.ensureAuthenticated()) {
+                return slot.connection;
+            }
+            throw new SmackException.NotConnectedException("No authenticated XMPP connection available to " + node);
+        }
+
+        private int usableCount() {
+            int usable = 0;
+            for (PooledConnection slot : slots) {
+                if (slot != null && slot.isUsable()) {
+                    usable++;
+                }
+            }
+            return usable;
+        }
+
+        @Override
+        public String toString() {
+            return node.toString();
+        }
+    }
+
+    private final class PooledConnection {
+        private final NodeConnections node;
+        private final int index;
+        private final XMPPTCPConnection connection;
+        private final ReentrantLock reconnectLock = new ReentrantLock();
+
+        private PooledConnection(NodeConnections node, int index, XMPPTCPConnection connection) {
+            this.node = node;
+            this.index = index;
+            this.connection = connection;
+        }
+
+        private boolean isUsable() {
+            return connection.isConnected() && connection.isAuthenticated();
+        }
+
+        /**
+         * Connects and logs in if needed. Only one thread repairs a slot at a time; others
+         * see the slot as unusable and move on. When the server granted stream management
+         * resumption, login() resumes the previous stream instead of opening a new session.
+         * A success readmits the node if it was ejected.
+         */
+        private boolean ensureAuthenticated() {
+            if (isUsable()) {
+                return true;
+            }
+            if (!reconnectLock.tryLock()) {
+                return false;
+            }
+            long start = System.nanoTime();
+            boolean authenticated = false;
+            try {
+                if (!connection.isConnected()) {
+                    connection.connect();
+                }
+                if (!connection.isAuthenticated()) {
+                    connection.login();
+                }
+                log.info("Pooled XMPP connection #{} to {} authenticated as '{}' (stream resumed: {}).",
+                        index, node, adminUsername, connection.streamWasResumed());
+                readmit(node);
+                authenticated = true;
+                return true;
+            } catch (Exception e) {
+                log.warn("Pooled XMPP connection #{} could not connect to {}: {}", index, node, e.getMessage());
+                return false;
+            } finally {
+                messagingMetrics.recordXmppConnect(authenticated, System.nanoTime() - start);
+                reconnectLock.unlock();
+            }
+        }
+
+        private void close() {
+            ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
+            if (connection.isConnected()) {
+                connection.disconnect();
+            }
+        }
+    }
+}
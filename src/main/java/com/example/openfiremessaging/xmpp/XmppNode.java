@@ -0,0 +1,92 @@
+package com.example.openfiremessaging.xmpp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One Openfire cluster node, and whether it is currently ejected from routing.
+ *
+ * A node that could not be reached is ejected for a while; its share of the recipients
+ * moves to the next nodes on the {@link HashRing} and returns once it is readmitted,
+ * either by a successful reconnect or, when the ejection runs out, by being tried again.
+ */
+public final class XmppNode {
+
+    private final String host;
+    private final int port;
+    private volatile long ejectedUntil;
+    private volatile boolean ejected;
+
+    public XmppNode(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses a comma-separated list of {@code host:port} entries; the port defaults to
+     * {@code defaultPort}.
+     */
+    public static List<XmppNode> parseList(String spec, int defaultPort) {
+        List<XmppNode> nodes = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            if (colon < 0) {
+                nodes.add(new XmppNode(trimmed, defaultPort));
+            } else {
+                nodes.add(new XmppNode(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1))));
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("No XMPP node configured in '" + spec + "'");
+        }
+        if (nodes.stream().map(XmppNode::toString).distinct().count() != nodes.size()) {
+            throw new IllegalArgumentException("Duplicate XMPP node in '" + spec + "'");
+        }
+        return nodes;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isAvailable() {
+        return !ejected || System.nanoTime() - ejectedUntil >= 0;
+    }
+
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * Takes the node out of routing for {@code ejectionMs}. Returns false if it already was.
+     */
+    public synchronized boolean eject(long ejectionMs) {
+        boolean wasEjected = ejected && !isAvailable();
+        ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectionMs);
+        ejected = true;
+        return !wasEjected;
+    }
+
+    /**
+     * Puts the node back into routing. Returns false if it was not ejected.
+     */
+    public synchronized boolean readmit() {
+        boolean wasEjected = ejected;
+        ejected = false;
+        return wasEjected;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}